@@ -0,0 +1,151 @@
+package telegramaibot;
+
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The bot's own CPU path with Telegram and the engines stubbed out: command handling, and the
+// fallback chain (routing, limiter, coalescing, memory, codec work) around the upstream call.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BotBenchmark {
+    private static final int USERS = 1024;
+
+    // first engine in the order fails, so every answer comes from the fallback
+    @Param({"false", "true"})
+    public boolean failFirst;
+
+    private StubBot bot;
+    private Update[] help;
+    private Update[] greeting;
+    private long next;
+
+    @Setup
+    public void setup() {
+        BotConfigurationProperties props = new BotConfigurationProperties();
+        props.setTelegramBotToken("0:benchmark");
+        props.setTelegramBotName("benchmark_bot");
+        // every call must reach the stubbed engine
+        props.getCache().setEnabled(false);
+        // keep the breaker shut and the order fixed, so failFirst keeps measuring the fallback path
+        props.getRouter().setFailureThreshold(Integer.MAX_VALUE);
+        props.getRouter().setErrorRateThreshold(Double.MAX_VALUE);
+        props.getRouter().setAdaptiveOrder(false);
+        // Telegram limits would only measure the token buckets
+        BotConfigurationProperties.Outbound outbound = props.getOutbound();
+        outbound.setGlobalPerSecond(1_000_000_000);
+        outbound.setChatPerSecond(1_000_000_000);
+        outbound.setChatBurst(1_000_000_000);
+        bot = new StubBot(props, failFirst);
+
+        help = new Update[USERS];
+        greeting = new Update[USERS];
+        for (int i = 0; i < USERS; i++) {
+            help[i] = textUpdate(1000L + i, "/help");
+            greeting[i] = textUpdate(1000L + i, "hello");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        // let the outbound queue catch up so one iteration's backlog does not bleed into the next
+        long seen;
+        do {
+            seen = bot.sent.get();
+            Thread.sleep(50);
+        } while (bot.sent.get() != seen);
+    }
+
+    @TearDown
+    public void close() {
+        bot.onClosing();
+    }
+
+    @Benchmark
+    public void helpCommand() {
+        bot.handleUpdate(help[(int) (next++ % USERS)]);
+    }
+
+    @Benchmark
+    public void greeting() {
+        bot.handleUpdate(greeting[(int) (next++ % USERS)]);
+    }
+
+    @Benchmark
+    public String produceWithFallback() {
+        return bot.produceWithFallback("Explain Java records in two sentences.", 1000L + next++ % USERS);
+    }
+
+    private static Update textUpdate(long userId, String text) {
+        Message message = new Message();
+        message.setMessageId(1);
+        message.setText(text);
+        message.setFrom(new User(userId, "user" + userId, false));
+        message.setChat(new Chat(userId, "private"));
+        Update update = new Update();
+        update.setMessage(message);
+        return update;
+    }
+
+    // Engines answer from canned bodies after building their real payloads; Telegram accepts
+    // everything instantly.
+    static final class StubBot extends TelegramAiBot {
+        private final boolean failFirst;
+        private final ByteString geminiBody = ByteString.encodeUtf8(Payloads.gemini(800));
+        private final ByteString huggingFaceBody = ByteString.encodeUtf8(Payloads.huggingFace(800));
+        private final String openAiAnswer = Payloads.answer(800);
+        final AtomicLong sent = new AtomicLong();
+
+        StubBot(BotConfigurationProperties props, boolean failFirst) {
+            super(props, BotMetrics.noop());
+            this.failFirst = failFirst;
+        }
+
+        @Override
+        String callEngine(String engine, EngineRequest req, CallScope scope) throws Exception {
+            switch (engine) {
+                case "openai":
+                    if (failFirst) throw new EngineHttpException("OpenAI error 503", 503);
+                    return openAiAnswer;
+                case "gemini":
+                    EngineCodec.geminiPayload(req);
+                    return EngineCodec.geminiResponseText(new Buffer().write(geminiBody));
+                default:
+                    EngineCodec.huggingFacePayload(req.getPrompt(), req.getMaxTokens());
+                    return EngineCodec.huggingFaceResponseText(new Buffer().write(huggingFaceBody));
+            }
+        }
+
+        @Override
+        public <T extends Serializable, Method extends BotApiMethod<T>> CompletableFuture<T> executeAsync(Method method) {
+            sent.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package telegramaibot;
+
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Payload building and response parsing for the REST engines. "typical" is a chat-sized answer,
+// "large" one that fills several Telegram messages.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"typical", "large"})
+    public String size;
+
+    private EngineRequest bare;
+    private EngineRequest withHistory;
+    private ByteString geminiResponse;
+    private ByteString huggingFaceResponse;
+
+    @Setup
+    public void setup() {
+        int chars = "large".equals(size) ? 32_000 : 800;
+        bare = EngineRequest.of("Explain Java records in two sentences.");
+        withHistory = new EngineRequest("And how do they compare to Lombok?", Payloads.history(12));
+        geminiResponse = ByteString.encodeUtf8(Payloads.gemini(chars));
+        huggingFaceResponse = ByteString.encodeUtf8(Payloads.huggingFace(chars));
+    }
+
+    @Benchmark
+    public ByteString geminiPayload() throws IOException {
+        return EngineCodec.geminiPayload(bare);
+    }
+
+    @Benchmark
+    public ByteString geminiPayloadWithHistory() throws IOException {
+        return EngineCodec.geminiPayload(withHistory);
+    }
+
+    @Benchmark
+    public ByteString huggingFacePayload() throws IOException {
+        return EngineCodec.huggingFacePayload(bare.getPrompt(), 512);
+    }
+
+    @Benchmark
+    public String geminiParse() throws IOException {
+        return parsed(EngineCodec.geminiResponseText(body(geminiResponse)));
+    }
+
+    @Benchmark
+    public String huggingFaceParse() throws IOException {
+        return parsed(EngineCodec.huggingFaceResponseText(body(huggingFaceResponse)));
+    }
+
+    // Stands in for the response body: parsing stops early, and closing the response releases
+    // what is left, which hands okio's segments back to its pool.
+    private Buffer body;
+
+    private Buffer body(ByteString bytes) {
+        body = new Buffer().write(bytes);
+        return body;
+    }
+
+    private String parsed(String text) {
+        body.clear();
+        return text;
+    }
+}
@@ -0,0 +1,44 @@
+package telegramaibot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Canned engine bodies shaped like real Gemini and Hugging Face answers.
+final class Payloads {
+    private Payloads() {
+    }
+
+    static String answer(int chars) {
+        String sentence = "Java records are immutable data carriers with \"accessors\", equals and hashCode.\n";
+        StringBuilder sb = new StringBuilder(chars + sentence.length());
+        while (sb.length() < chars) sb.append(sentence);
+        sb.setLength(chars);
+        return sb.toString();
+    }
+
+    static String gemini(int chars) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":" + quote(answer(chars)) + "}],\"role\":\"model\"},"
+                + "\"finishReason\":\"STOP\",\"index\":0,\"safetyRatings\":["
+                + "{\"category\":\"HARM_CATEGORY_HARASSMENT\",\"probability\":\"NEGLIGIBLE\"},"
+                + "{\"category\":\"HARM_CATEGORY_HATE_SPEECH\",\"probability\":\"NEGLIGIBLE\"}]}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":12,\"candidatesTokenCount\":" + chars / 4
+                + ",\"totalTokenCount\":" + (12 + chars / 4) + "},\"modelVersion\":\"gemini-2.5-flash\"}";
+    }
+
+    static String huggingFace(int chars) {
+        return "[{\"generated_text\":" + quote(answer(chars)) + "}]";
+    }
+
+    static List<ConversationStore.Turn> history(int turns) {
+        List<ConversationStore.Turn> history = new ArrayList<>(turns);
+        for (int i = 0; i < turns; i++) {
+            history.add(new ConversationStore.Turn(i % 2 == 0 ? ConversationStore.USER : ConversationStore.ASSISTANT,
+                    i % 2 == 0 ? "How do I use records number " + i + "?" : answer(300)));
+        }
+        return history;
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,244 @@
+package telegramaibot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Stand-ins for the OpenAI, Gemini and Hugging Face endpoints the bot calls, streaming variants
+// included. Each engine answers after a latency drawn from a log-normal distribution and fails a
+// configurable share of calls with 429 or 500.
+final class FakeEngines {
+
+    static final class Profile {
+        // median latency, and the spread of its logarithm (0 = always the median)
+        final double medianMs;
+        final double sigma;
+        final double throttleRate;
+        final double errorRate;
+
+        Profile(double medianMs, double sigma, double throttleRate, double errorRate) {
+            this.medianMs = medianMs;
+            this.sigma = sigma;
+            this.throttleRate = throttleRate;
+            this.errorRate = errorRate;
+        }
+
+        long sampleMillis() {
+            return Math.round(medianMs * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    private static final int STREAM_CHUNKS = 4;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Profile> profiles;
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService threads;
+
+    FakeEngines(Map<String, Profile> profiles) {
+        this.profiles = profiles;
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/v1/chat/completions", e -> handle(e, "openai"));
+        server.createContext("/v1beta/models/", e -> handle(e, "gemini"));
+        server.createContext("/hf", e -> handle(e, "huggingface"));
+        // the bot's connection pre-warming touches the API roots
+        server.createContext("/", e -> {
+            try (e) {
+                e.sendResponseHeaders(404, -1);
+            }
+        });
+        // every pending answer holds a thread while it "thinks", like a slow upstream would hold a socket
+        threads = Executors.newCachedThreadPool(UpdateDispatcher.namedThreads("fake-engine-"));
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    String huggingFaceUrl() {
+        return baseUrl() + "hf";
+    }
+
+    // engine.outcome -> calls, e.g. gemini.429
+    Map<String, Long> counts() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counts.forEach((k, v) -> snapshot.put(k, v.sum()));
+        return snapshot;
+    }
+
+    private void handle(HttpExchange exchange, String engine) throws IOException {
+        try (exchange) {
+            // pre-warming sends HEAD requests here too
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            JsonNode body = mapper.readTree(exchange.getRequestBody());
+            Profile profile = profiles.get(engine);
+            long latency = profile.sampleMillis();
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < profile.throttleRate) {
+                count(engine, "429");
+                sleep(latency / 10);
+                send(exchange, 429, "application/json", "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\",\"code\":\"rate_limit_exceeded\"}}");
+                return;
+            }
+            if (roll < profile.throttleRate + profile.errorRate) {
+                count(engine, "500");
+                sleep(latency);
+                send(exchange, 500, "application/json", "{\"error\":{\"message\":\"Internal error\",\"type\":\"server_error\"}}");
+                return;
+            }
+            count(engine, "200");
+            String path = exchange.getRequestURI().getPath();
+            switch (engine) {
+                case "openai":
+                    String prompt = lastMessage(body);
+                    if (body.path("stream").asBoolean()) stream(exchange, latency, answer(engine, prompt), FakeEngines::openAiChunk);
+                    else respond(exchange, latency, openAiCompletion(answer(engine, prompt)));
+                    break;
+                case "gemini":
+                    String question = lastGeminiText(body);
+                    if (path.endsWith(":streamGenerateContent")) stream(exchange, latency, answer(engine, question), FakeEngines::geminiChunk);
+                    else respond(exchange, latency, geminiCandidate(answer(engine, question)));
+                    break;
+                default:
+                    respond(exchange, latency, huggingFaceOutputs(body.path("inputs")));
+            }
+        }
+    }
+
+    private void count(String engine, String outcome) {
+        counts.computeIfAbsent(engine + "." + outcome, k -> new LongAdder()).increment();
+    }
+
+    private static String answer(String engine, String prompt) {
+        return "Mock " + engine + " answer to \"" + prompt + "\". It is long enough to look like a short chat reply.";
+    }
+
+    private void respond(HttpExchange exchange, long latency, JsonNode json) throws IOException {
+        sleep(latency);
+        send(exchange, 200, "application/json", mapper.writeValueAsString(json));
+    }
+
+    private interface ChunkWriter {
+        JsonNode chunk(ObjectMapper mapper, String text);
+    }
+
+    // the answer in a few SSE events spread over the latency, as a real token stream would be
+    private void stream(HttpExchange exchange, long latency, String text, ChunkWriter writer) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int step = (text.length() + STREAM_CHUNKS - 1) / STREAM_CHUNKS;
+        for (int i = 0; i < text.length(); i += step) {
+            sleep(latency / STREAM_CHUNKS);
+            String event = "data: " + mapper.writeValueAsString(writer.chunk(mapper, text.substring(i, Math.min(text.length(), i + step)))) + "\n\n";
+            out.write(event.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.close();
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(Math.max(0, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------------------
+    // payloads
+    // ---------------------------
+    private static String lastMessage(JsonNode body) {
+        JsonNode messages = body.path("messages");
+        return messages.size() > 0 ? messages.get(messages.size() - 1).path("content").asText() : "";
+    }
+
+    private static String lastGeminiText(JsonNode body) {
+        JsonNode contents = body.path("contents");
+        if (contents.size() == 0) return "";
+        return contents.get(contents.size() - 1).path("parts").path(0).path("text").asText();
+    }
+
+    private JsonNode openAiCompletion(String text) {
+        ObjectNode root = mapper.createObjectNode()
+                .put("id", "chatcmpl-mock")
+                .put("object", "chat.completion")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", "gpt-3.5-turbo");
+        ObjectNode choice = root.putArray("choices").addObject().put("index", 0).put("finish_reason", "stop");
+        choice.putObject("message").put("role", "assistant").put("content", text);
+        return root;
+    }
+
+    private static JsonNode openAiChunk(ObjectMapper mapper, String text) {
+        ObjectNode root = mapper.createObjectNode()
+                .put("id", "chatcmpl-mock")
+                .put("object", "chat.completion.chunk")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", "gpt-3.5-turbo");
+        root.putArray("choices").addObject().put("index", 0).putObject("delta").put("content", text);
+        return root;
+    }
+
+    private JsonNode geminiCandidate(String text) {
+        return geminiChunk(mapper, text);
+    }
+
+    private static JsonNode geminiChunk(ObjectMapper mapper, String text) {
+        ObjectNode root = mapper.createObjectNode();
+        root.putArray("candidates").addObject()
+                .putObject("content").put("role", "model")
+                .putArray("parts").addObject().put("text", text);
+        return root;
+    }
+
+    // [{"generated_text": ...}] for one input, [[{...}], [{...}]] for a batch
+    private JsonNode huggingFaceOutputs(JsonNode inputs) {
+        ArrayNode root = mapper.createArrayNode();
+        if (!inputs.isArray()) {
+            root.addObject().put("generated_text", answer("huggingface", inputs.asText()));
+            return root;
+        }
+        for (JsonNode input : inputs) {
+            root.addArray().addObject().put("generated_text", answer("huggingface", input.asText()));
+        }
+        return root;
+    }
+}
@@ -0,0 +1,131 @@
+package telegramaibot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// In-process stand-in for the Redis commands RedisStateStore uses (PING, AUTH, SELECT, HSETNX,
+// HSET, HGET, HDEL, HLEN), speaking RESP2 on a local port. One thread per connection.
+final class FakeRedis {
+
+    private final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+    private ServerSocket server;
+    private ExecutorService threads;
+
+    void start() throws IOException {
+        server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        threads = Executors.newCachedThreadPool(UpdateDispatcher.namedThreads("fake-redis-"));
+        threads.execute(this::accept);
+    }
+
+    void stop() {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // stopping anyway
+        }
+        threads.shutdownNow();
+    }
+
+    String url() {
+        return "redis://127.0.0.1:" + server.getLocalPort();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                threads.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                String[] command = readCommand(in);
+                out.write(execute(command).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private String execute(String[] c) {
+        switch (c[0].toUpperCase(Locale.ROOT)) {
+            case "PING":
+                return "+PONG\r\n";
+            case "AUTH":
+            case "SELECT":
+                return "+OK\r\n";
+            case "HSETNX":
+                return integer(hash(c[1]).putIfAbsent(c[2], c[3]) == null ? 1 : 0);
+            case "HSET":
+                return integer(hash(c[1]).put(c[2], c[3]) == null ? 1 : 0);
+            case "HGET":
+                return bulk(hash(c[1]).get(c[2]));
+            case "HDEL":
+                return integer(hash(c[1]).remove(c[2]) != null ? 1 : 0);
+            case "HLEN":
+                return integer(hash(c[1]).size());
+            default:
+                return "-ERR unknown command '" + c[0] + "'\r\n";
+        }
+    }
+
+    private Map<String, String> hash(String key) {
+        return hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+
+    private static String integer(long value) {
+        return ":" + value + "\r\n";
+    }
+
+    private static String bulk(String value) {
+        if (value == null) return "$-1\r\n";
+        return "$" + value.getBytes(StandardCharsets.UTF_8).length + "\r\n" + value + "\r\n";
+    }
+
+    // *<n>\r\n followed by n $<len>\r\n<bytes>\r\n parts
+    private static String[] readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (!header.startsWith("*")) throw new IOException("Expected an array, got " + header);
+        String[] parts = new String[Integer.parseInt(header.substring(1))];
+        for (int i = 0; i < parts.length; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = in.readNBytes(length + 2);
+            if (bytes.length < length + 2) throw new EOFException();
+            parts[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return parts;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) throw new EOFException();
+            line.append((char) b);
+        }
+        in.read();
+        return line.toString();
+    }
+}
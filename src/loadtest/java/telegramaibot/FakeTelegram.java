@@ -0,0 +1,142 @@
+package telegramaibot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Just enough of the Bot API for a polling bot: getUpdates long-polls a queue of synthetic user
+// messages, and every sendMessage / editMessageText is acknowledged and handed to the listener.
+// Each synthetic user talks to the bot in a private chat, so chat id and user id are the same.
+final class FakeTelegram {
+
+    interface Listener {
+        void onReply(long chatId, String text);
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Listener listener;
+    private final BlockingQueue<ObjectNode> updates = new LinkedBlockingQueue<>();
+    private final AtomicInteger updateIds = new AtomicInteger();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService threads;
+
+    FakeTelegram(Listener listener) {
+        this.listener = listener;
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", this::handle);
+        threads = Executors.newCachedThreadPool(UpdateDispatcher.namedThreads("fake-telegram-"));
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    // value for bot.telegram-api-url; the library appends the token and method name
+    String apiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    void deliver(long userId, String text) {
+        ObjectNode update = mapper.createObjectNode().put("update_id", updateIds.incrementAndGet());
+        ObjectNode message = update.putObject("message")
+                .put("message_id", messageIds.incrementAndGet())
+                .put("date", System.currentTimeMillis() / 1000)
+                .put("text", text);
+        message.putObject("chat").put("id", userId).put("type", "private");
+        message.putObject("from").put("id", userId).put("is_bot", false).put("first_name", "user" + userId);
+        updates.add(update);
+    }
+
+    int backlog() {
+        return updates.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            // the library sends method names in lower case
+            String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            JsonNode body = readBody(exchange);
+            JsonNode result;
+            switch (method) {
+                case "getupdates":
+                    result = poll(body.path("limit").asInt(100), body.path("timeout").asInt(0));
+                    break;
+                case "sendmessage":
+                case "editmessagetext":
+                    long chatId = body.path("chat_id").asLong();
+                    listener.onReply(chatId, body.path("text").asText());
+                    result = message(chatId, body);
+                    break;
+                default:
+                    // deleteWebhook, answerCallbackQuery and the like
+                    result = mapper.getNodeFactory().booleanNode(true);
+            }
+            ObjectNode response = mapper.createObjectNode().put("ok", true);
+            response.set("result", result);
+            byte[] bytes = mapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        byte[] raw = exchange.getRequestBody().readAllBytes();
+        if (raw.length == 0) return mapper.createObjectNode();
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/json")) return mapper.readTree(raw);
+        // form-encoded or multipart requests only matter for methods the bot does not use here
+        return mapper.createObjectNode().put("raw", new String(raw, StandardCharsets.UTF_8));
+    }
+
+    // Updates are handed out once; the offset acknowledgement is not needed for a test run.
+    private JsonNode poll(int limit, int timeoutSeconds) {
+        List<ObjectNode> batch = new ArrayList<>();
+        try {
+            ObjectNode first = updates.poll(timeoutSeconds, TimeUnit.SECONDS);
+            if (first != null) {
+                batch.add(first);
+                updates.drainTo(batch, Math.max(0, limit - 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ArrayNode result = mapper.createArrayNode();
+        batch.forEach(result::add);
+        return result;
+    }
+
+    private JsonNode message(long chatId, JsonNode request) {
+        int id = request.has("message_id") ? request.path("message_id").asInt() : messageIds.incrementAndGet();
+        ObjectNode message = mapper.createObjectNode()
+                .put("message_id", id)
+                .put("date", System.currentTimeMillis() / 1000)
+                .put("text", request.path("text").asText());
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        return message;
+    }
+}
@@ -0,0 +1,320 @@
+package telegramaibot;
+
+import ch.qos.logback.classic.Level;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.generics.BotSession;
+import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Offline capacity test: the real bot, polling a fake Bot API and calling fake engines, driven by
+// synthetic users. Each user sends a message, waits for the answer, thinks, and sends the next one,
+// so the offered load follows the bot's own speed. Reports throughput, end-to-end latency (from the
+// update being queued at "Telegram" to the final answer) and which engine answered.
+//
+//   mvn -Ploadtest compile exec:exec -Dloadtest.args="users=2000 duration-seconds=120 openai.error-rate=0.05"
+//
+// Options are key=value; anything starting with "bot." is applied to the bot configuration, e.g.
+// bot.streaming.enabled=true or bot.hedging.strategy=hedged. nodes=N runs a cluster instead: an
+// ingress polling the fake Bot API and N workers behind it, sharing user state in a fake Redis.
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("users", "1000");
+        DEFAULTS.put("duration-seconds", "60");
+        // users start evenly spread over this period
+        DEFAULTS.put("ramp-seconds", "10");
+        // mean pause between an answer and the user's next message (exponentially distributed)
+        DEFAULTS.put("think-ms", "5000");
+        // distinct prompts; fewer means more cache hits and coalescing
+        DEFAULTS.put("prompts", "10000");
+        // a message without an answer after this long counts as lost
+        DEFAULTS.put("reply-timeout-ms", "60000");
+        DEFAULTS.put("log-level", "error");
+        // 0 runs one bot; N > 0 runs an ingress and N workers
+        DEFAULTS.put("nodes", "0");
+        for (String engine : Arrays.asList("openai", "gemini", "huggingface")) {
+            DEFAULTS.put(engine + ".latency-ms", engine.equals("huggingface") ? "1500" : "800");
+            DEFAULTS.put(engine + ".latency-sigma", "0.5");
+            DEFAULTS.put(engine + ".throttle-rate", "0.01");
+            DEFAULTS.put(engine + ".error-rate", "0.01");
+        }
+    }
+
+    private final Map<String, String> options;
+    private final Map<Long, AtomicLong> outstanding = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final LongAdder sent = new LongAdder();
+    private final ScheduledExecutorService clock = Executors.newScheduledThreadPool(4, UpdateDispatcher.namedThreads("loadtest-"));
+    private final long thinkMillis;
+    private final int prompts;
+    private final long replyTimeoutNanos;
+    private FakeTelegram telegram;
+    private volatile boolean sending = true;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.thinkMillis = Long.parseLong(options.get("think-ms"));
+        this.prompts = Integer.parseInt(options.get("prompts"));
+        this.replyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.get("reply-timeout-ms")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        Map<String, String> botOptions = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Expected key=value, got " + arg);
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (key.startsWith("bot.")) {
+                botOptions.put(key, value);
+            } else if (options.containsKey(key)) {
+                options.put(key, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + key + "; known: " + DEFAULTS.keySet());
+            }
+        }
+        // Without it the JDK server's separate header and body writes meet delayed ACKs, adding ~40 ms
+        // to every request on a kept-alive connection; the fakes would become the bottleneck.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                .setLevel(Level.toLevel(options.get("log-level")));
+        new LoadTest(options).run(botOptions);
+        System.exit(0);
+    }
+
+    private void run(Map<String, String> botOptions) throws Exception {
+        Map<String, FakeEngines.Profile> profiles = new HashMap<>();
+        for (String engine : Arrays.asList("openai", "gemini", "huggingface")) {
+            profiles.put(engine, new FakeEngines.Profile(
+                    number(engine + ".latency-ms"), number(engine + ".latency-sigma"),
+                    number(engine + ".throttle-rate"), number(engine + ".error-rate")));
+        }
+        FakeEngines engines = new FakeEngines(profiles);
+        engines.start();
+        telegram = new FakeTelegram(this::onReply);
+        telegram.start();
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        int nodes = Integer.parseInt(options.get("nodes"));
+        List<Runnable> shutdown = new ArrayList<>();
+        BotSession session;
+        if (nodes == 0) {
+            TelegramAiBot bot = new TelegramAiBot(botProperties(botOptions, engines, p -> { }), new BotMetrics(registry));
+            shutdown.add(bot::onClosing);
+            session = new TelegramBotsApi(DefaultBotSession.class).registerBot(bot);
+        } else {
+            FakeRedis redis = new FakeRedis();
+            redis.start();
+            List<String> workers = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                BotConfigurationProperties props = botProperties(botOptions, engines, p -> {
+                    p.getCluster().setStateBackend("redis");
+                    p.getCluster().setRedisUrl(redis.url());
+                    p.getWebhook().setHost("127.0.0.1");
+                    p.getWebhook().setPort(0);
+                    // one intake thread keeps a chat's updates in the order the ingress sent them
+                    p.getWebhook().setIntakeThreads(1);
+                });
+                TelegramAiBot worker = new TelegramAiBot(props, new BotMetrics(registry));
+                WebhookServer endpoint = new WebhookServer(props.getWebhook(), worker::onUpdateReceived);
+                endpoint.start();
+                workers.add("http://127.0.0.1:" + endpoint.getPort() + props.getWebhook().getPath());
+                shutdown.add(() -> {
+                    endpoint.stop();
+                    worker.onClosing();
+                });
+            }
+            ClusterIngress ingress = new ClusterIngress(
+                    botProperties(botOptions, engines, p -> p.getCluster().setWorkers(workers)), new BotMetrics(registry));
+            shutdown.add(0, ingress::onClosing);
+            shutdown.add(redis::stop);
+            session = new TelegramBotsApi(DefaultBotSession.class).registerBot(ingress);
+        }
+
+        int users = Integer.parseInt(options.get("users"));
+        long rampNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("ramp-seconds")));
+        long durationSeconds = Long.parseLong(options.get("duration-seconds"));
+        System.out.printf(Locale.ROOT, "Load test: %d users for %ds (ramp %ss), think %sms%s%n",
+                users, durationSeconds, options.get("ramp-seconds"), options.get("think-ms"),
+                nodes > 0 ? ", " + nodes + " workers" : "");
+        for (long u = 1; u <= users; u++) {
+            long user = u;
+            outstanding.put(user, new AtomicLong());
+            clock.schedule(() -> send(user), rampNanos * (user - 1) / users, TimeUnit.NANOSECONDS);
+        }
+        clock.scheduleWithFixedDelay(this::expireLost, 1, 1, TimeUnit.SECONDS);
+
+        long started = System.nanoTime();
+        long lastAnswered = 0;
+        for (long s = 5; s <= durationSeconds; s += 5) {
+            Thread.sleep(5000);
+            long answered = latencies.count();
+            System.out.printf(Locale.ROOT, "%4ds  sent=%d answered=%d (%.1f/s)  polling backlog=%d%n",
+                    s, sent.sum(), answered, (answered - lastAnswered) / 5.0, telegram.backlog());
+            lastAnswered = answered;
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds % 5));
+
+        // stop offering load, then give the messages still in flight a chance to finish
+        sending = false;
+        long drainUntil = System.nanoTime() + replyTimeoutNanos;
+        while (System.nanoTime() < drainUntil && outstanding.values().stream().anyMatch(a -> a.get() != 0)) {
+            Thread.sleep(100);
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        session.stop();
+        shutdown.forEach(Runnable::run);
+        clock.shutdownNow();
+        telegram.stop();
+        engines.stop();
+        report(elapsed, engines.counts(), registry);
+    }
+
+    // The bot's configuration pointed at the fakes; setup runs before the bot.* options, which win.
+    private BotConfigurationProperties botProperties(Map<String, String> botOptions, FakeEngines engines,
+                                                     Consumer<BotConfigurationProperties> setup) {
+        BotConfigurationProperties props = new BotConfigurationProperties();
+        props.setTelegramBotToken("0:loadtest");
+        props.setTelegramBotName("loadtest_bot");
+        props.setTelegramApiUrl(telegram.apiUrl());
+        props.setOpenaiApiKey("mock");
+        props.setGeminiApiKey("mock");
+        props.setHuggingfaceApiKey("mock");
+        props.setOpenaiBaseUrl(engines.baseUrl());
+        props.setGeminiBaseUrl(engines.baseUrl());
+        props.setHuggingfaceUrl(engines.huggingFaceUrl());
+        setup.accept(props);
+        new Binder(new MapConfigurationPropertySource(botOptions)).bind("bot", Bindable.ofInstance(props));
+        return props;
+    }
+
+    private double number(String key) {
+        return Double.parseDouble(options.get(key));
+    }
+
+    private void send(long user) {
+        if (!sending) return;
+        outstanding.get(user).set(System.nanoTime());
+        sent.increment();
+        telegram.deliver(user, "Question " + ThreadLocalRandom.current().nextInt(prompts) + ": how does this work?");
+    }
+
+    private void onReply(long chatId, String text) {
+        String outcome = outcome(text);
+        if (outcome == null) return;
+        AtomicLong pending = outstanding.get(chatId);
+        long sentAt = pending != null ? pending.getAndSet(0) : 0;
+        // a late answer for a message already counted as lost
+        if (sentAt == 0) return;
+        latencies.record(System.nanoTime() - sentAt);
+        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        thinkThenSend(chatId);
+    }
+
+    private void expireLost() {
+        long now = System.nanoTime();
+        outstanding.forEach((user, pending) -> {
+            long sentAt = pending.get();
+            if (sentAt != 0 && now - sentAt > replyTimeoutNanos && pending.compareAndSet(sentAt, 0)) {
+                outcomes.computeIfAbsent("lost", k -> new LongAdder()).increment();
+                thinkThenSend(user);
+            }
+        });
+    }
+
+    private void thinkThenSend(long user) {
+        long pause = Math.round(-thinkMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+        clock.schedule(() -> send(user), pause, TimeUnit.MILLISECONDS);
+    }
+
+    // The final reply to a message, by what it says; null for the menu, the streaming placeholder
+    // and intermediate edits.
+    private static String outcome(String text) {
+        if (text.contains("Response from: OpenAI]")) return "openai";
+        if (text.contains("Response from: Gemini]")) return "gemini";
+        if (text.contains("Response from: HuggingFace]")) return "huggingface";
+        if (text.contains("❌ All AI services")) return "all_failed";
+        if (text.startsWith("⌛") || text.contains("⌛ Stopped")) return "timed_out";
+        if (text.contains("⚠️ Response interrupted")) return "interrupted";
+        if (text.startsWith("⏳ I'm handling")) return "busy";
+        if (text.startsWith("⏳ You're sending")) return "rate_limited";
+        return null;
+    }
+
+    private void report(double elapsedSeconds, Map<String, Long> upstream, SimpleMeterRegistry registry) {
+        long answered = latencies.count();
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Sent %d messages, %d replies in %.1fs: %.1f replies/s%n",
+                sent.sum(), answered, elapsedSeconds, answered / elapsedSeconds);
+        System.out.printf(Locale.ROOT, "End-to-end latency ms: p50=%d p90=%d p99=%d max=%d%n",
+                latencies.percentileMillis(50), latencies.percentileMillis(90),
+                latencies.percentileMillis(99), latencies.percentileMillis(100));
+        System.out.println("Outcomes:");
+        outcomes.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> System.out.printf(Locale.ROOT, "  %-12s %8d  %5.1f%%%n", e.getKey(), e.getValue().sum(),
+                        100.0 * e.getValue().sum() / Math.max(1, sent.sum())));
+        System.out.println("Upstream calls (engine.status):");
+        upstream.forEach((k, v) -> System.out.printf(Locale.ROOT, "  %-16s %8d%n", k, v));
+        var depth = registry.find("bot.fallback.depth").summary();
+        if (depth != null) System.out.printf(Locale.ROOT, "Mean fallback depth: %.3f%n", depth.mean());
+        var forwards = registry.find("bot.cluster.forwards").counters();
+        if (!forwards.isEmpty()) {
+            System.out.println("Forwards (worker outcome):");
+            forwards.stream()
+                    .sorted(Comparator.comparing((Counter c) -> c.getId().getTag("worker")).thenComparing(c -> c.getId().getTag("outcome")))
+                    .forEach(c -> System.out.printf(Locale.ROOT, "  %-40s %-8s %8d%n",
+                            c.getId().getTag("worker"), c.getId().getTag("outcome"), (long) c.count()));
+        }
+    }
+
+    // All samples are kept; a run produces at most a few hundred thousand.
+    private static final class LatencyRecorder {
+        private long[] samples = new long[1 << 14];
+        private int size;
+
+        synchronized void record(long nanos) {
+            if (size == samples.length) samples = Arrays.copyOf(samples, size * 2);
+            samples[size++] = nanos;
+        }
+
+        synchronized long count() {
+            return size;
+        }
+
+        synchronized long percentileMillis(double p) {
+            if (size == 0) return 0;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(size - 1, Math.max(0, Math.ceil(p / 100.0 * size) - 1));
+            return TimeUnit.NANOSECONDS.toMillis(sorted[index]);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package telegramaibot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Decides whether an engine-bound update may enter the queue. Each user and each chat has a token
+// bucket, so one noisy user or group cannot take the whole engine capacity; updates that waited in
+// the queue longer than the SLO are shed rather than answered late. Refusals are told to the user
+// at most once per notify interval.
+public class AdmissionControl {
+
+    public enum Decision {
+        ADMIT, USER_LIMITED, CHAT_LIMITED
+    }
+
+    private final BotConfigurationProperties.Admission config;
+    private final long sloNanos;
+    private final long notifyIntervalNanos;
+    private final Map<Long, Limits> users = new ConcurrentHashMap<>();
+    private final Map<Long, Limits> chats = new ConcurrentHashMap<>();
+
+    public AdmissionControl(BotConfigurationProperties.Admission config) {
+        this.config = config;
+        this.sloNanos = TimeUnit.MILLISECONDS.toNanos(config.getQueueSloMs());
+        this.notifyIntervalNanos = TimeUnit.SECONDS.toNanos(config.getNotifyIntervalSeconds());
+    }
+
+    public Decision admit(long userId, long chatId) {
+        if (!users.computeIfAbsent(userId, id -> new Limits(config.getUserPerMinute(), config.getUserBurst())).take()) {
+            return Decision.USER_LIMITED;
+        }
+        if (chatId != userId
+                && !chats.computeIfAbsent(chatId, id -> new Limits(config.getChatPerMinute(), config.getChatBurst())).take()) {
+            return Decision.CHAT_LIMITED;
+        }
+        return Decision.ADMIT;
+    }
+
+    // true when an update that has been queued since enqueuedAt (System.nanoTime) should be dropped
+    public boolean isStale(long enqueuedAt) {
+        return sloNanos > 0 && System.nanoTime() - enqueuedAt > sloNanos;
+    }
+
+    // true at most once per notify interval per chat, so a refusal does not turn into reply spam
+    public boolean shouldNotify(long chatId) {
+        Limits l = chats.computeIfAbsent(chatId, id -> new Limits(config.getChatPerMinute(), config.getChatBurst()));
+        synchronized (l) {
+            long now = System.nanoTime();
+            if (l.lastNotified != 0 && now - l.lastNotified < notifyIntervalNanos) return false;
+            l.lastNotified = now;
+            return true;
+        }
+    }
+
+    public int trackedUsers() {
+        return users.size();
+    }
+
+    // Forgets users and chats that have been quiet long enough for their buckets to refill.
+    public void sweep() {
+        long cutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(10);
+        users.values().removeIf(l -> l.lastUsed < cutoff);
+        chats.values().removeIf(l -> l.lastUsed < cutoff);
+    }
+
+    private static final class Limits {
+        private final TokenBucket bucket;
+        private volatile long lastUsed = System.nanoTime();
+        private long lastNotified;
+
+        private Limits(double perMinute, int burst) {
+            this.bucket = new TokenBucket(perMinute / 60d, burst);
+        }
+
+        private boolean take() {
+            lastUsed = System.nanoTime();
+            return bucket.tryConsume();
+        }
+    }
+}
@@ -2,6 +2,11 @@ package telegramaibot;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @ConfigurationProperties(prefix = "bot")
 public class BotConfigurationProperties {
     private String telegramBotToken;
@@ -10,6 +15,36 @@ public class BotConfigurationProperties {
     private String geminiApiKey;
     private String huggingfaceApiKey;
     private String huggingfaceModel = "gpt2";
+    // full inference URL; empty uses the hosted API for huggingfaceModel (set it for a self-hosted TGI-compatible server)
+    private String huggingfaceUrl = "";
+    // engine API roots; empty uses the public endpoints (point at mock servers for load tests)
+    private String openaiBaseUrl = "";
+    private String geminiBaseUrl = "";
+    // Bot API base URL; empty uses https://api.telegram.org/bot (point at a fake server for local runs)
+    private String telegramApiUrl = "";
+    // polling (getUpdates through DefaultBotSession) or webhook (embedded HTTP endpoint)
+    private String ingestionMode = "polling";
+    // append-only log of per-user state (menu seen, chosen engine); empty keeps it in memory only
+    private String stateFile = "";
+    // memory-mapped window of recently taken update ids, so re-deliveries are not answered twice; empty keeps it in memory only
+    private String updateJournal = "";
+    private final Dispatcher dispatcher = new Dispatcher();
+    private final Hedging hedging = new Hedging();
+    private final Router router = new Router();
+    private final Cache cache = new Cache();
+    private final Coalescing coalescing = new Coalescing();
+    private final Streaming streaming = new Streaming();
+    private final Webhook webhook = new Webhook();
+    private final Memory memory = new Memory();
+    private final Outbound outbound = new Outbound();
+    private final Metrics metrics = new Metrics();
+    private final Transport transport = new Transport();
+    private final HuggingfaceBatch huggingfaceBatch = new HuggingfaceBatch();
+    private final Admission admission = new Admission();
+    private final Deadline deadline = new Deadline();
+    private final Startup startup = new Startup();
+    private final Cluster cluster = new Cluster();
+    private final Generation generation = new Generation();
 
     public String getTelegramBotToken() {
         return telegramBotToken;
@@ -58,4 +93,1093 @@ public class BotConfigurationProperties {
     public void setHuggingfaceModel(String huggingfaceModel) {
         this.huggingfaceModel = huggingfaceModel;
     }
+
+    public String getHuggingfaceUrl() {
+        return huggingfaceUrl;
+    }
+
+    public void setHuggingfaceUrl(String huggingfaceUrl) {
+        this.huggingfaceUrl = huggingfaceUrl;
+    }
+
+    public String getOpenaiBaseUrl() {
+        return openaiBaseUrl;
+    }
+
+    public void setOpenaiBaseUrl(String openaiBaseUrl) {
+        this.openaiBaseUrl = openaiBaseUrl;
+    }
+
+    public String getGeminiBaseUrl() {
+        return geminiBaseUrl;
+    }
+
+    public void setGeminiBaseUrl(String geminiBaseUrl) {
+        this.geminiBaseUrl = geminiBaseUrl;
+    }
+
+    public String getTelegramApiUrl() {
+        return telegramApiUrl;
+    }
+
+    public void setTelegramApiUrl(String telegramApiUrl) {
+        this.telegramApiUrl = telegramApiUrl;
+    }
+
+    public String getIngestionMode() {
+        return ingestionMode;
+    }
+
+    public void setIngestionMode(String ingestionMode) {
+        this.ingestionMode = ingestionMode;
+    }
+
+    public String getStateFile() {
+        return stateFile;
+    }
+
+    public void setStateFile(String stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    public String getUpdateJournal() {
+        return updateJournal;
+    }
+
+    public void setUpdateJournal(String updateJournal) {
+        this.updateJournal = updateJournal;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public Hedging getHedging() {
+        return hedging;
+    }
+
+    public Router getRouter() {
+        return router;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public Streaming getStreaming() {
+        return streaming;
+    }
+
+    public Webhook getWebhook() {
+        return webhook;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public Outbound getOutbound() {
+        return outbound;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public HuggingfaceBatch getHuggingfaceBatch() {
+        return huggingfaceBatch;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public Startup getStartup() {
+        return startup;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public Generation getGeneration() {
+        return generation;
+    }
+
+    public static class Dispatcher {
+        private int workerThreads = 64;
+        private int maxPendingUpdates = 10_000;
+        private int engineMaxConcurrency = 16;
+        // per-engine override of engineMaxConcurrency, keyed by openai / gemini / huggingface
+        private Map<String, Integer> engineConcurrency = new HashMap<>();
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public void setWorkerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+        }
+
+        public int getMaxPendingUpdates() {
+            return maxPendingUpdates;
+        }
+
+        public void setMaxPendingUpdates(int maxPendingUpdates) {
+            this.maxPendingUpdates = maxPendingUpdates;
+        }
+
+        public int getEngineMaxConcurrency() {
+            return engineMaxConcurrency;
+        }
+
+        public void setEngineMaxConcurrency(int engineMaxConcurrency) {
+            this.engineMaxConcurrency = engineMaxConcurrency;
+        }
+
+        public Map<String, Integer> getEngineConcurrency() {
+            return engineConcurrency;
+        }
+
+        public void setEngineConcurrency(Map<String, Integer> engineConcurrency) {
+            this.engineConcurrency = engineConcurrency;
+        }
+    }
+
+    public static class Hedging {
+        // sequential (try engines one after another) or hedged (race the next engine after a delay)
+        private String strategy = "sequential";
+        private long delayMs = 2000;
+        // when > 0, hedge after this latency percentile of the preferred engine instead of delayMs
+        private double percentile = 0;
+
+        public String getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(String strategy) {
+            this.strategy = strategy;
+        }
+
+        public long getDelayMs() {
+            return delayMs;
+        }
+
+        public void setDelayMs(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+    }
+
+    public static class Router {
+        // rank engines by observed latency and error rate when the user has not picked one
+        private boolean adaptiveOrder = true;
+        private double ewmaAlpha = 0.2;
+        // breaker opens after this many consecutive failures ...
+        private int failureThreshold = 5;
+        // ... or once the smoothed error rate reaches this value after minCalls calls
+        private double errorRateThreshold = 0.5;
+        private int minCalls = 10;
+        // how long an open breaker rejects calls before letting a single probe through
+        private long openMs = 30_000;
+
+        public boolean isAdaptiveOrder() {
+            return adaptiveOrder;
+        }
+
+        public void setAdaptiveOrder(boolean adaptiveOrder) {
+            this.adaptiveOrder = adaptiveOrder;
+        }
+
+        public double getEwmaAlpha() {
+            return ewmaAlpha;
+        }
+
+        public void setEwmaAlpha(double ewmaAlpha) {
+            this.ewmaAlpha = ewmaAlpha;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public double getErrorRateThreshold() {
+            return errorRateThreshold;
+        }
+
+        public void setErrorRateThreshold(double errorRateThreshold) {
+            this.errorRateThreshold = errorRateThreshold;
+        }
+
+        public int getMinCalls() {
+            return minCalls;
+        }
+
+        public void setMinCalls(int minCalls) {
+            this.minCalls = minCalls;
+        }
+
+        public long getOpenMs() {
+            return openMs;
+        }
+
+        public void setOpenMs(long openMs) {
+            this.openMs = openMs;
+        }
+    }
+
+    public static class Cache {
+        private boolean enabled = true;
+        // upper bound on the estimated heap used by cached answers
+        private long maxBytes = 64L * 1024 * 1024;
+        private long ttlSeconds = 3600;
+        // engines that must never be served from cache, e.g. huggingface for sampling models
+        private List<String> disabledEngines = new ArrayList<>();
+        // directory for the persistent tier; empty keeps the cache in memory only
+        private String diskDir = "";
+        // file bytes the persistent tier may hold; the oldest entries go first
+        private long diskMaxBytes = 256L * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public long getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(long ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public List<String> getDisabledEngines() {
+            return disabledEngines;
+        }
+
+        public void setDisabledEngines(List<String> disabledEngines) {
+            this.disabledEngines = disabledEngines;
+        }
+
+        public String getDiskDir() {
+            return diskDir;
+        }
+
+        public void setDiskDir(String diskDir) {
+            this.diskDir = diskDir;
+        }
+
+        public long getDiskMaxBytes() {
+            return diskMaxBytes;
+        }
+
+        public void setDiskMaxBytes(long diskMaxBytes) {
+            this.diskMaxBytes = diskMaxBytes;
+        }
+    }
+
+    public static class Coalescing {
+        // share one upstream call between identical prompts that are in flight at the same time
+        private boolean enabled = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class Streaming {
+        // stream answers into a placeholder message instead of sending them when complete
+        private boolean enabled = false;
+        // minimum gap between edits of the same message; groups get a stricter limit from Telegram
+        private long editIntervalMs = 1000;
+        private long groupEditIntervalMs = 3000;
+        private String placeholder = "⏳ Thinking…";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getEditIntervalMs() {
+            return editIntervalMs;
+        }
+
+        public void setEditIntervalMs(long editIntervalMs) {
+            this.editIntervalMs = editIntervalMs;
+        }
+
+        public long getGroupEditIntervalMs() {
+            return groupEditIntervalMs;
+        }
+
+        public void setGroupEditIntervalMs(long groupEditIntervalMs) {
+            this.groupEditIntervalMs = groupEditIntervalMs;
+        }
+
+        public String getPlaceholder() {
+            return placeholder;
+        }
+
+        public void setPlaceholder(String placeholder) {
+            this.placeholder = placeholder;
+        }
+    }
+
+    public static class Webhook {
+        private String host = "0.0.0.0";
+        private int port = 8443;
+        private String path = "/telegram/webhook";
+        // public HTTPS URL registered with setWebhook; empty leaves registration to the operator
+        private String publicUrl = "";
+        // checked against X-Telegram-Bot-Api-Secret-Token when set
+        private String secretToken = "";
+        private int queueCapacity = 10_000;
+        private int httpThreads = 4;
+        // more than one can hand a chat's updates to the bot out of arrival order; parsing is cheap
+        private int intakeThreads = 1;
+        private int backlog = 1024;
+        private int maxConnections = 40;
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public String getPublicUrl() {
+            return publicUrl;
+        }
+
+        public void setPublicUrl(String publicUrl) {
+            this.publicUrl = publicUrl;
+        }
+
+        public String getSecretToken() {
+            return secretToken;
+        }
+
+        public void setSecretToken(String secretToken) {
+            this.secretToken = secretToken;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getHttpThreads() {
+            return httpThreads;
+        }
+
+        public void setHttpThreads(int httpThreads) {
+            this.httpThreads = httpThreads;
+        }
+
+        public int getIntakeThreads() {
+            return intakeThreads;
+        }
+
+        public void setIntakeThreads(int intakeThreads) {
+            this.intakeThreads = intakeThreads;
+        }
+
+        public int getBacklog() {
+            return backlog;
+        }
+
+        public void setBacklog(int backlog) {
+            this.backlog = backlog;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    public static class Memory {
+        // send earlier turns of the conversation along with each new message
+        private boolean enabled = true;
+        private int maxTurns = 12;
+        // estimated tokens of history sent per request; also caps what is stored per user
+        private int tokenBudget = 1000;
+        private long idleMinutes = 30;
+        private int maxConversations = 200_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxTurns() {
+            return maxTurns;
+        }
+
+        public void setMaxTurns(int maxTurns) {
+            this.maxTurns = maxTurns;
+        }
+
+        public int getTokenBudget() {
+            return tokenBudget;
+        }
+
+        public void setTokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+        }
+
+        public long getIdleMinutes() {
+            return idleMinutes;
+        }
+
+        public void setIdleMinutes(long idleMinutes) {
+            this.idleMinutes = idleMinutes;
+        }
+
+        public int getMaxConversations() {
+            return maxConversations;
+        }
+
+        public void setMaxConversations(int maxConversations) {
+            this.maxConversations = maxConversations;
+        }
+    }
+
+    public static class Outbound {
+        // Telegram allows about 30 messages per second overall ...
+        private double globalPerSecond = 30;
+        // ... about one per second in a single chat ...
+        private double chatPerSecond = 1;
+        private int chatBurst = 3;
+        // ... and 20 per minute in a group
+        private int groupPerMinute = 20;
+        private int groupBurst = 3;
+        private int maxAttempts = 5;
+        private long backoffMs = 500;
+        // threads executing requests against the Bot API
+        private int sendThreads = 16;
+
+        public double getGlobalPerSecond() {
+            return globalPerSecond;
+        }
+
+        public void setGlobalPerSecond(double globalPerSecond) {
+            this.globalPerSecond = globalPerSecond;
+        }
+
+        public double getChatPerSecond() {
+            return chatPerSecond;
+        }
+
+        public void setChatPerSecond(double chatPerSecond) {
+            this.chatPerSecond = chatPerSecond;
+        }
+
+        public int getChatBurst() {
+            return chatBurst;
+        }
+
+        public void setChatBurst(int chatBurst) {
+            this.chatBurst = chatBurst;
+        }
+
+        public int getGroupPerMinute() {
+            return groupPerMinute;
+        }
+
+        public void setGroupPerMinute(int groupPerMinute) {
+            this.groupPerMinute = groupPerMinute;
+        }
+
+        public int getGroupBurst() {
+            return groupBurst;
+        }
+
+        public void setGroupBurst(int groupBurst) {
+            this.groupBurst = groupBurst;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getBackoffMs() {
+            return backoffMs;
+        }
+
+        public void setBackoffMs(long backoffMs) {
+            this.backoffMs = backoffMs;
+        }
+
+        public int getSendThreads() {
+            return sendThreads;
+        }
+
+        public void setSendThreads(int sendThreads) {
+            this.sendThreads = sendThreads;
+        }
+    }
+
+    public static class Metrics {
+        // tag every update with a short id in the logging MDC (traceId) so its log lines can be grouped
+        private boolean traceIds = false;
+
+        public boolean isTraceIds() {
+            return traceIds;
+        }
+
+        public void setTraceIds(boolean traceIds) {
+            this.traceIds = traceIds;
+        }
+    }
+
+    public static class Transport {
+        // engine requests in flight overall and per provider host; more wait for a slot
+        private int maxRequests = 128;
+        private int maxRequestsPerHost = 32;
+        private int maxIdleConnections = 16;
+        private long keepAliveSeconds = 300;
+        private long connectTimeoutMs = 20000;
+        private long readTimeoutMs = 60000;
+        // 0 resolves on every new connection
+        private long dnsCacheSeconds = 300;
+        // open connections to each configured provider at startup
+        private boolean prewarm = true;
+        // re-touch providers this often so pooled connections survive quiet periods; 0 disables
+        private long keepWarmSeconds = 240;
+
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+
+        public void setMaxRequests(int maxRequests) {
+            this.maxRequests = maxRequests;
+        }
+
+        public int getMaxRequestsPerHost() {
+            return maxRequestsPerHost;
+        }
+
+        public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+        }
+
+        public int getMaxIdleConnections() {
+            return maxIdleConnections;
+        }
+
+        public void setMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+        }
+
+        public long getKeepAliveSeconds() {
+            return keepAliveSeconds;
+        }
+
+        public void setKeepAliveSeconds(long keepAliveSeconds) {
+            this.keepAliveSeconds = keepAliveSeconds;
+        }
+
+        public long getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(long connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public long getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(long readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        public long getDnsCacheSeconds() {
+            return dnsCacheSeconds;
+        }
+
+        public void setDnsCacheSeconds(long dnsCacheSeconds) {
+            this.dnsCacheSeconds = dnsCacheSeconds;
+        }
+
+        public boolean isPrewarm() {
+            return prewarm;
+        }
+
+        public void setPrewarm(boolean prewarm) {
+            this.prewarm = prewarm;
+        }
+
+        public long getKeepWarmSeconds() {
+            return keepWarmSeconds;
+        }
+
+        public void setKeepWarmSeconds(long keepWarmSeconds) {
+            this.keepWarmSeconds = keepWarmSeconds;
+        }
+    }
+
+    public static class HuggingfaceBatch {
+        // send concurrent Hugging Face prompts as one request with an inputs array
+        private boolean enabled = false;
+        private int maxBatchSize = 8;
+        // how long the first prompt of a batch waits for company
+        private long maxWaitMs = 5;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public long getMaxWaitMs() {
+            return maxWaitMs;
+        }
+
+        public void setMaxWaitMs(long maxWaitMs) {
+            this.maxWaitMs = maxWaitMs;
+        }
+    }
+
+    public static class Admission {
+        // per-user/per-chat limits, a fast lane for cheap commands and load shedding
+        private boolean enabled = true;
+        private double userPerMinute = 20;
+        private int userBurst = 5;
+        // group chats as a whole; private chats only count against the user
+        private double chatPerMinute = 60;
+        private int chatBurst = 10;
+        // engine-bound updates that waited longer than this are answered with a busy reply instead; 0 disables
+        private long queueSloMs = 30000;
+        // workers for commands and callbacks that never reach an engine
+        private int fastThreads = 4;
+        // at most one busy/rate-limit reply per chat in this interval
+        private long notifyIntervalSeconds = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getUserPerMinute() {
+            return userPerMinute;
+        }
+
+        public void setUserPerMinute(double userPerMinute) {
+            this.userPerMinute = userPerMinute;
+        }
+
+        public int getUserBurst() {
+            return userBurst;
+        }
+
+        public void setUserBurst(int userBurst) {
+            this.userBurst = userBurst;
+        }
+
+        public double getChatPerMinute() {
+            return chatPerMinute;
+        }
+
+        public void setChatPerMinute(double chatPerMinute) {
+            this.chatPerMinute = chatPerMinute;
+        }
+
+        public int getChatBurst() {
+            return chatBurst;
+        }
+
+        public void setChatBurst(int chatBurst) {
+            this.chatBurst = chatBurst;
+        }
+
+        public long getQueueSloMs() {
+            return queueSloMs;
+        }
+
+        public void setQueueSloMs(long queueSloMs) {
+            this.queueSloMs = queueSloMs;
+        }
+
+        public int getFastThreads() {
+            return fastThreads;
+        }
+
+        public void setFastThreads(int fastThreads) {
+            this.fastThreads = fastThreads;
+        }
+
+        public long getNotifyIntervalSeconds() {
+            return notifyIntervalSeconds;
+        }
+
+        public void setNotifyIntervalSeconds(long notifyIntervalSeconds) {
+            this.notifyIntervalSeconds = notifyIntervalSeconds;
+        }
+    }
+
+    public static class Deadline {
+        // one time budget per engine-bound update, counted from its arrival
+        private boolean enabled = true;
+        private long updateMs = 45000;
+        // cap for a single engine attempt, so a hung engine leaves time for the fallbacks
+        private long attemptMs = 20000;
+        // a new message from the same user cancels the answer still being produced for the previous one
+        private boolean cancelOnNewMessage = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getUpdateMs() {
+            return updateMs;
+        }
+
+        public void setUpdateMs(long updateMs) {
+            this.updateMs = updateMs;
+        }
+
+        public long getAttemptMs() {
+            return attemptMs;
+        }
+
+        public void setAttemptMs(long attemptMs) {
+            this.attemptMs = attemptMs;
+        }
+
+        public boolean isCancelOnNewMessage() {
+            return cancelOnNewMessage;
+        }
+
+        public void setCancelOnNewMessage(boolean cancelOnNewMessage) {
+            this.cancelOnNewMessage = cancelOnNewMessage;
+        }
+    }
+
+    public static class Startup {
+        // build engine HTTP clients on first use (or in the background when pre-warming) instead of
+        // before the bot registers with Telegram
+        private boolean lazyEngines = true;
+
+        public boolean isLazyEngines() {
+            return lazyEngines;
+        }
+
+        public void setLazyEngines(boolean lazyEngines) {
+            this.lazyEngines = lazyEngines;
+        }
+    }
+
+    public static class Cluster {
+        // worker webhook URLs; when set, this instance only ingests updates and forwards each chat to one worker
+        private List<String> workers = new ArrayList<>();
+        // ring points per worker; more points even out the share of chats each worker gets
+        private int virtualNodes = 160;
+        // forwards in flight; the updates of one chat are forwarded one at a time, in order
+        private int forwardThreads = 32;
+        // how long an update may wait for a live worker before it is dropped
+        private long forwardTimeoutMs = 30000;
+        // how often workers taken out of the ring are probed to bring them back
+        private long healthCheckMs = 2000;
+        // where per-user state lives: local (this process, see state-file) or redis (shared by all workers)
+        private String stateBackend = "local";
+        // redis://[:password@]host[:port][/database]
+        private String redisUrl = "redis://localhost:6379";
+        private int redisPoolSize = 16;
+        private long redisTimeoutMs = 1000;
+        private String redisKeyPrefix = "telegram-ai-bot:";
+
+        public List<String> getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(List<String> workers) {
+            this.workers = workers;
+        }
+
+        public int getVirtualNodes() {
+            return virtualNodes;
+        }
+
+        public void setVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+        }
+
+        public int getForwardThreads() {
+            return forwardThreads;
+        }
+
+        public void setForwardThreads(int forwardThreads) {
+            this.forwardThreads = forwardThreads;
+        }
+
+        public long getForwardTimeoutMs() {
+            return forwardTimeoutMs;
+        }
+
+        public void setForwardTimeoutMs(long forwardTimeoutMs) {
+            this.forwardTimeoutMs = forwardTimeoutMs;
+        }
+
+        public long getHealthCheckMs() {
+            return healthCheckMs;
+        }
+
+        public void setHealthCheckMs(long healthCheckMs) {
+            this.healthCheckMs = healthCheckMs;
+        }
+
+        public String getStateBackend() {
+            return stateBackend;
+        }
+
+        public void setStateBackend(String stateBackend) {
+            this.stateBackend = stateBackend;
+        }
+
+        public String getRedisUrl() {
+            return redisUrl;
+        }
+
+        public void setRedisUrl(String redisUrl) {
+            this.redisUrl = redisUrl;
+        }
+
+        public int getRedisPoolSize() {
+            return redisPoolSize;
+        }
+
+        public void setRedisPoolSize(int redisPoolSize) {
+            this.redisPoolSize = redisPoolSize;
+        }
+
+        public long getRedisTimeoutMs() {
+            return redisTimeoutMs;
+        }
+
+        public void setRedisTimeoutMs(long redisTimeoutMs) {
+            this.redisTimeoutMs = redisTimeoutMs;
+        }
+
+        public String getRedisKeyPrefix() {
+            return redisKeyPrefix;
+        }
+
+        public void setRedisKeyPrefix(String redisKeyPrefix) {
+            this.redisKeyPrefix = redisKeyPrefix;
+        }
+    }
+
+    public static class Generation {
+        // size each call's output limit to the latency target from the observed tokens/second;
+        // off sends every call with max-tokens
+        private boolean enabled = true;
+        // time an answer should take, capped by what is left of the update's deadline
+        private long targetMs = 8000;
+        // part of every call that does not depend on the answer length
+        private long overheadMs = 700;
+        private int minTokens = 64;
+        private int maxTokens = 512;
+        // generation speed assumed for a model until calls have measured it
+        private double initialTokensPerSecond = 40;
+        // engine -> faster model variant, used when the default model fits fewer tokens than this
+        private Map<String, String> fastModels = new HashMap<>();
+        private int fastModelBelowTokens = 128;
+        // user id -> target and ceiling for that user
+        private Map<String, Limit> users = new HashMap<>();
+        // ai (/ai) or chat (ordinary messages) -> target and ceiling for that command
+        private Map<String, Limit> commands = new HashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getTargetMs() {
+            return targetMs;
+        }
+
+        public void setTargetMs(long targetMs) {
+            this.targetMs = targetMs;
+        }
+
+        public long getOverheadMs() {
+            return overheadMs;
+        }
+
+        public void setOverheadMs(long overheadMs) {
+            this.overheadMs = overheadMs;
+        }
+
+        public int getMinTokens() {
+            return minTokens;
+        }
+
+        public void setMinTokens(int minTokens) {
+            this.minTokens = minTokens;
+        }
+
+        public int getMaxTokens() {
+            return maxTokens;
+        }
+
+        public void setMaxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+        }
+
+        public double getInitialTokensPerSecond() {
+            return initialTokensPerSecond;
+        }
+
+        public void setInitialTokensPerSecond(double initialTokensPerSecond) {
+            this.initialTokensPerSecond = initialTokensPerSecond;
+        }
+
+        public Map<String, String> getFastModels() {
+            return fastModels;
+        }
+
+        public void setFastModels(Map<String, String> fastModels) {
+            this.fastModels = fastModels;
+        }
+
+        public int getFastModelBelowTokens() {
+            return fastModelBelowTokens;
+        }
+
+        public void setFastModelBelowTokens(int fastModelBelowTokens) {
+            this.fastModelBelowTokens = fastModelBelowTokens;
+        }
+
+        public Map<String, Limit> getUsers() {
+            return users;
+        }
+
+        public void setUsers(Map<String, Limit> users) {
+            this.users = users;
+        }
+
+        public Map<String, Limit> getCommands() {
+            return commands;
+        }
+
+        public void setCommands(Map<String, Limit> commands) {
+            this.commands = commands;
+        }
+
+        public static class Limit {
+            // 0 keeps the configured value
+            private long targetMs;
+            private int maxTokens;
+
+            public long getTargetMs() {
+                return targetMs;
+            }
+
+            public void setTargetMs(long targetMs) {
+                this.targetMs = targetMs;
+            }
+
+            public int getMaxTokens() {
+                return maxTokens;
+            }
+
+            public void setMaxTokens(int maxTokens) {
+                this.maxTokens = maxTokens;
+            }
+        }
+    }
 }
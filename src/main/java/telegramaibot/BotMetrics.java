@@ -0,0 +1,125 @@
+package telegramaibot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// All bot meters in one place, so names and tags stay consistent across the request path.
+public class BotMetrics {
+    private final MeterRegistry registry;
+
+    public BotMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // meters go nowhere; for tools that run the bot outside Spring
+    public static BotMetrics noop() {
+        return new BotMetrics(new SimpleMeterRegistry());
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    public void updateReceived(String type) {
+        Counter.builder("bot.updates.received").tag("type", type).register(registry).increment();
+    }
+
+    // an update already taken on before, re-delivered after a restart or retried by the webhook sender
+    public void updateDuplicate(String type) {
+        Counter.builder("bot.updates.duplicate").tag("type", type).register(registry).increment();
+    }
+
+    public void command(String command) {
+        Counter.builder("bot.commands").tag("command", command).register(registry).increment();
+    }
+
+    public void admissionRejected(String reason) {
+        Counter.builder("bot.admission.rejected").tag("reason", reason).register(registry).increment();
+    }
+
+    public void queueWait(long nanos) {
+        Timer.builder("bot.dispatcher.queue.wait")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    public void engineCall(String engine, String outcome, long nanos) {
+        Timer.builder("bot.engine.latency")
+                .tag("engine", engine)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(50))
+                .maximumExpectedValue(Duration.ofSeconds(120))
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    public void engineError(String engine, int status) {
+        Counter.builder("bot.engine.errors")
+                .tag("engine", engine)
+                .tag("status", status > 0 ? Integer.toString(status) : "none")
+                .register(registry)
+                .increment();
+    }
+
+    // position in the fallback order of the engine that answered; order size when all failed
+    public void fallbackDepth(int depth) {
+        DistributionSummary.builder("bot.fallback.depth").register(registry).record(depth);
+    }
+
+    // an update whose answer was cut short: reason is "deadline" or "superseded"
+    public void requestInterrupted(String reason) {
+        Counter.builder("bot.requests.interrupted").tag("reason", reason).register(registry).increment();
+    }
+
+    public void batchSize(String engine, int size) {
+        DistributionSummary.builder("bot.engine.batch.size").tag("engine", engine).register(registry).record(size);
+    }
+
+    // the output limit each engine call was sent with, by the model it went to
+    public void generationLimit(String engine, String model, int maxTokens) {
+        DistributionSummary.builder("bot.generation.max.tokens")
+                .tag("engine", engine)
+                .tag("model", model)
+                .register(registry)
+                .record(maxTokens);
+    }
+
+    // outcome: ok, busy (worker queue full, retried), rejected (4xx, update dropped), error (worker
+    // taken out of the ring) or dropped
+    public void clusterForward(String worker, String outcome) {
+        Counter.builder("bot.cluster.forwards").tag("worker", worker).tag("outcome", outcome).register(registry).increment();
+    }
+
+    public void telegramSend(String method, String outcome, long nanos) {
+        Timer.builder("bot.telegram.send")
+                .tag("method", method)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    public void gauge(String name, String tagKey, String tagValue, Supplier<Number> value) {
+        Gauge.builder(name, value).tag(tagKey, tagValue).strongReference(true).register(registry);
+    }
+
+    public void gauge(String name, Supplier<Number> value) {
+        Gauge.builder(name, value).strongReference(true).register(registry);
+    }
+
+    public void counterFunction(String name, String tagKey, String tagValue, Supplier<Number> value) {
+        FunctionCounter.builder(name, value, v -> v.get().doubleValue())
+                .tag(tagKey, tagValue)
+                .register(registry);
+    }
+}
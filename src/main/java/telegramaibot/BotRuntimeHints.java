@@ -0,0 +1,64 @@
+package telegramaibot;
+
+import com.theokanning.openai.client.OpenAiApi;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Reflection and resource metadata for a GraalVM native image. Spring's AOT pass covers the
+// application context; these cover the libraries that bind JSON or build clients reflectively.
+// Engine responses are parsed with Gson's streaming reader, which needs no metadata.
+class BotRuntimeHints implements RuntimeHintsRegistrar {
+    private static final MemberCategory[] JSON_BINDING = {
+            MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+            MemberCategory.INVOKE_DECLARED_METHODS,
+            MemberCategory.DECLARED_FIELDS
+    };
+    // Jackson binds the Bot API objects and methods, and the OpenAI request and response models
+    private static final List<String> JSON_PACKAGES = List.of(
+            "org.telegram.telegrambots.meta.api",
+            "com.theokanning.openai");
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (String basePackage : JSON_PACKAGES) {
+            for (String type : classesIn(basePackage, classLoader)) {
+                hints.reflection().registerType(TypeReference.of(type), JSON_BINDING);
+            }
+        }
+        // TelegramBotsApi instantiates the polling session from its class
+        hints.reflection().registerType(DefaultBotSession.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        // Retrofit implements the API interface as a JDK proxy driven by its method annotations
+        hints.proxies().registerJdkProxy(OpenAiApi.class);
+        hints.reflection().registerType(OpenAiApi.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+        // OkHttp checks certificate host names against the bundled public suffix list
+        hints.resources().registerPattern("okhttp3/internal/publicsuffix/publicsuffixes.gz");
+    }
+
+    // Class names only, read from the class files, so nothing is loaded or initialized here.
+    private static Set<String> classesIn(String basePackage, ClassLoader classLoader) {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(classLoader);
+        MetadataReaderFactory readers = new CachingMetadataReaderFactory(resolver);
+        Set<String> names = new TreeSet<>();
+        try {
+            for (Resource r : resolver.getResources("classpath*:" + basePackage.replace('.', '/') + "/**/*.class")) {
+                names.add(readers.getMetadataReader(r).getClassMetadata().getClassName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return names;
+    }
+}
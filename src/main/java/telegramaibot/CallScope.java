@@ -0,0 +1,170 @@
+package telegramaibot;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Tracks the HTTP calls and waits made on behalf of one engine attempt so they can be aborted
+// together, e.g. when a hedged attempt loses the race.
+// A scope may carry a deadline, after which it cancels itself. Child scopes (one per engine
+// attempt of an update) never outlive their parent's deadline and are cancelled along with it.
+public class CallScope implements AutoCloseable {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final ScheduledThreadPoolExecutor DEADLINES = deadlineTimer();
+    // scope bound to the engine call running on this thread, see bind()
+    private static final ThreadLocal<CallScope> CURRENT = new ThreadLocal<>();
+
+    private final CallScope parent;
+    // System.nanoTime() at which the scope expires, NO_DEADLINE when unbounded
+    private final long deadline;
+    private final List<Runnable> onCancel = new ArrayList<>();
+    private boolean cancelled;
+    private volatile boolean expired;
+    private ScheduledFuture<?> expiry;
+
+    public CallScope() {
+        this(null, NO_DEADLINE);
+    }
+
+    private CallScope(CallScope parent, long deadline) {
+        this.parent = parent;
+        this.deadline = deadline;
+        if (deadline != NO_DEADLINE) {
+            long delay = deadline - System.nanoTime();
+            if (delay <= 0) {
+                cancel(true);
+            } else {
+                ScheduledFuture<?> timer = DEADLINES.schedule(() -> cancel(true), delay, TimeUnit.NANOSECONDS);
+                synchronized (this) {
+                    expiry = timer;
+                }
+            }
+        }
+    }
+
+    // A scope that cancels itself at deadlineNanos (a System.nanoTime() value).
+    public static CallScope withDeadline(long deadlineNanos) {
+        return new CallScope(null, deadlineNanos);
+    }
+
+    // A scope for one step of this scope's work: it ends maxMillis from now or at this scope's
+    // deadline, whichever comes first, and is cancelled whenever this scope is.
+    public CallScope child(long maxMillis) {
+        long d = deadline;
+        if (maxMillis > 0) d = Math.min(d, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMillis));
+        CallScope child = new CallScope(this, d);
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel.add(child::cancel);
+                return child;
+            }
+        }
+        child.cancel();
+        return child;
+    }
+
+    // Tracks the call and gives it what is left of the deadline as its overall timeout.
+    public Call track(Call call) {
+        if (deadline != NO_DEADLINE) {
+            call.timeout().timeout(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        onCancel(call::cancel);
+        return call;
+    }
+
+    // Registers an action to run on cancel; runs it immediately if the scope is already cancelled.
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel.add(action);
+                return;
+            }
+        }
+        action.run();
+        throw new CancellationException(isExpired() ? "Deadline exceeded" : "Engine call cancelled");
+    }
+
+    public void cancel() {
+        cancel(false);
+    }
+
+    // Cancels the scope as if its deadline had passed, for work that outlived every deadline it served.
+    public void expire() {
+        cancel(true);
+    }
+
+    private void cancel(boolean deadlinePassed) {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            expired = deadlinePassed;
+            actions = new ArrayList<>(onCancel);
+            onCancel.clear();
+        }
+        for (Runnable a : actions) a.run();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    // true when the scope, or the one it was derived from, ran out of time (as opposed to being
+    // cancelled on purpose)
+    public boolean isExpired() {
+        return expired || (parent != null && parent.isExpired());
+    }
+
+    // Long.MAX_VALUE when the scope has no deadline
+    public long remainingMillis() {
+        if (deadline == NO_DEADLINE) return Long.MAX_VALUE;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    // Stops the deadline timer once the work is done; does not cancel anything.
+    @Override
+    public void close() {
+        ScheduledFuture<?> timer;
+        synchronized (this) {
+            timer = expiry;
+            expiry = null;
+        }
+        if (timer != null) timer.cancel(false);
+    }
+
+    // Runs fn with this scope bound to the current thread, so HTTP calls made by clients that do
+    // not hand out their Call (the OpenAI library) are still cancelled with it; see interceptor().
+    public <T> T bind(Callable<T> fn) throws Exception {
+        CallScope previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return fn.call();
+        } finally {
+            if (previous != null) CURRENT.set(previous);
+            else CURRENT.remove();
+        }
+    }
+
+    // Attaches every synchronous call made on a thread with a bound scope to that scope.
+    static Interceptor interceptor() {
+        return chain -> {
+            CallScope scope = CURRENT.get();
+            if (scope != null) scope.onCancel(chain.call()::cancel);
+            return chain.proceed(chain.request());
+        };
+    }
+
+    private static ScheduledThreadPoolExecutor deadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, UpdateDispatcher.namedThreads("bot-deadline-"));
+        // most deadlines are met; do not keep their timers queued until they would have fired
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
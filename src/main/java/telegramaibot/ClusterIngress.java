@@ -0,0 +1,199 @@
+package telegramaibot;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Front end of a cluster: takes updates from Telegram (polling or webhook) and forwards each to the
+// worker that owns its chat on a consistent-hash ring. Workers are ordinary bot instances in webhook
+// mode without a public URL; they answer users directly.
+// Updates of one chat are forwarded one at a time, each only after the previous one was accepted,
+// so a chat's messages reach its worker in order. A worker that cannot be reached leaves the ring
+// (its chats move to the next worker) until a health probe finds it answering again.
+// The set of workers is bot.cluster.workers as read at startup; the ring only ever drops and
+// re-adds those. Adding a worker means restarting the ingress with the longer list.
+public class ClusterIngress extends TelegramLongPollingBot {
+    private static final Logger log = LoggerFactory.getLogger(ClusterIngress.class);
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private final String botToken;
+    private final String botUsername;
+    private final BotConfigurationProperties.Cluster config;
+    private final String secretToken;
+    private final BotMetrics metrics;
+    private final UpdateJournal journal;
+    private final UpdateDispatcher lanes;
+    private final OkHttpClient http;
+    private final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final Set<String> down = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService health =
+            Executors.newSingleThreadScheduledExecutor(UpdateDispatcher.namedThreads("cluster-health-"));
+    private volatile HashRing ring;
+
+    public ClusterIngress(BotConfigurationProperties props, BotMetrics metrics) {
+        super(botOptions(props), props.getTelegramBotToken());
+        this.botToken = props.getTelegramBotToken();
+        this.botUsername = props.getTelegramBotName();
+        this.config = props.getCluster();
+        this.secretToken = props.getWebhook().getSecretToken();
+        this.metrics = metrics;
+        this.journal = new UpdateJournal(props.getUpdateJournal());
+        this.lanes = new UpdateDispatcher(config.getForwardThreads(), props.getDispatcher().getMaxPendingUpdates(), "cluster-forward-");
+        this.http = new OkHttpClient.Builder()
+                .connectTimeout(2, TimeUnit.SECONDS)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+        // one pooled connection per forwarding thread and worker
+        http.dispatcher().setMaxRequestsPerHost(config.getForwardThreads());
+        this.ring = new HashRing(config.getWorkers(), config.getVirtualNodes());
+        health.scheduleWithFixedDelay(() -> {
+            journal.flush();
+            probe();
+        }, config.getHealthCheckMs(), config.getHealthCheckMs(), TimeUnit.MILLISECONDS);
+        metrics.gauge("bot.cluster.workers.live", () -> ring.nodes().size());
+        log.info("Forwarding updates to {} workers", config.getWorkers().size());
+    }
+
+    private static DefaultBotOptions botOptions(BotConfigurationProperties props) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        String apiUrl = props.getTelegramApiUrl();
+        if (apiUrl != null && !apiUrl.isBlank()) options.setBaseUrl(apiUrl);
+        return options;
+    }
+
+    @Override
+    public String getBotToken() { return botToken; }
+
+    @Override
+    public String getBotUsername() { return botUsername; }
+
+    @Override
+    public void clearWebhook() throws TelegramApiRequestException {
+        super.clearWebhook();
+        journal.confirmTaken(this);
+    }
+
+    @Override
+    public void onUpdateReceived(Update update) {
+        if (update.getUpdateId() != null && !journal.markNew(update.getUpdateId())) {
+            metrics.updateDuplicate(TelegramAiBot.updateType(update));
+            return;
+        }
+        long chatId = TelegramAiBot.chatKey(update);
+        lanes.dispatch(chatId, () -> forward(chatId, update));
+    }
+
+    public List<String> liveWorkers() {
+        return ring.nodes();
+    }
+
+    @Override
+    public void onClosing() {
+        lanes.shutdown();
+        health.shutdownNow();
+        http.dispatcher().executorService().shutdown();
+        http.connectionPool().evictAll();
+        journal.close();
+        super.onClosing();
+    }
+
+    // Runs on the chat's lane. Tries the chat's owner; a worker that fails is taken out of the ring
+    // and the update goes to the new owner. A busy worker (503) is retried after a pause.
+    private void forward(long chatId, Update update) {
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(update);
+        } catch (JsonProcessingException e) {
+            log.warn("Dropping update {}: {}", update.getUpdateId(), e.getMessage());
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getForwardTimeoutMs());
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            String worker = ring.nodeFor(chatId);
+            if (worker == null) {
+                pause(config.getHealthCheckMs());
+                continue;
+            }
+            Request.Builder request = new Request.Builder().url(worker).post(RequestBody.create(body, JSON));
+            if (secretToken != null && !secretToken.isBlank()) request.header(SECRET_HEADER, secretToken);
+            try (Response response = http.newCall(request.build()).execute()) {
+                if (response.isSuccessful()) {
+                    metrics.clusterForward(worker, "ok");
+                    return;
+                }
+                if (response.code() == 503) {
+                    metrics.clusterForward(worker, "busy");
+                    pause(100);
+                    continue;
+                }
+                if (response.code() < 500) {
+                    // the worker is up but refuses this update (bad secret, oversized body): another
+                    // worker would too, so the update is dropped and the worker stays in the ring
+                    metrics.clusterForward(worker, "rejected");
+                    log.warn("Worker {} rejected update {} with {}; dropped", worker, update.getUpdateId(), response.code());
+                    return;
+                }
+                metrics.clusterForward(worker, "error");
+                log.warn("Worker {} answered {}", worker, response.code());
+            } catch (IOException e) {
+                metrics.clusterForward(worker, "error");
+                log.warn("Worker {} unreachable: {}", worker, e.getMessage());
+            }
+            markDown(worker);
+        }
+        metrics.clusterForward("none", "dropped");
+        log.error("No worker took update {} for chat {} in time; dropped", update.getUpdateId(), chatId);
+    }
+
+    private void markDown(String worker) {
+        if (down.add(worker)) rebuild(worker, "left");
+    }
+
+    // Any HTTP answer (the webhook path answers 405 to GET) means the worker is back.
+    private void probe() {
+        for (String worker : down) {
+            try {
+                http.newCall(new Request.Builder().url(worker).get().build()).execute().close();
+                if (down.remove(worker)) rebuild(worker, "rejoined");
+            } catch (IOException e) {
+                log.debug("Worker {} still down: {}", worker, e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void rebuild(String worker, String change) {
+        List<String> live = new ArrayList<>(config.getWorkers());
+        live.removeAll(down);
+        ring = new HashRing(live, config.getVirtualNodes());
+        log.warn("Worker {} {} the ring; {} of {} live", worker, change, live.size(), config.getWorkers().size());
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package telegramaibot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Recent turns per user, kept compact: roles are a byte, text is stored UTF-8 encoded in a small
+// ring, and each conversation is trimmed to the token budget it may send, so the memory held per
+// user is bounded by that budget. Idle conversations are dropped by sweep().
+public class ConversationStore {
+    public static final String USER = "user";
+    public static final String ASSISTANT = "assistant";
+
+    private static final byte ROLE_USER = 0;
+    private static final byte ROLE_ASSISTANT = 1;
+    // common rough estimate for English text with GPT-style tokenizers
+    private static final int BYTES_PER_TOKEN = 4;
+
+    private final int maxTurns;
+    private final int maxBytes;
+    private final long idleMillis;
+    private final int maxConversations;
+    private final Map<Long, Conversation> conversations = new ConcurrentHashMap<>();
+
+    public ConversationStore(BotConfigurationProperties.Memory config) {
+        this.maxTurns = Math.max(2, config.getMaxTurns());
+        this.maxBytes = config.getTokenBudget() * BYTES_PER_TOKEN;
+        this.idleMillis = config.getIdleMinutes() * 60_000L;
+        this.maxConversations = config.getMaxConversations();
+    }
+
+    public static final class Turn {
+        private final String role;
+        private final String text;
+
+        Turn(String role, String text) {
+            this.role = role;
+            this.text = text;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    // Oldest first.
+    public List<Turn> history(long userId) {
+        Conversation c = conversations.get(userId);
+        if (c == null) return Collections.emptyList();
+        synchronized (c) {
+            List<Turn> turns = new ArrayList<>(c.count);
+            for (int i = 0; i < c.count; i++) {
+                int slot = (c.head + i) % maxTurns;
+                String role = c.roles[slot] == ROLE_USER ? USER : ASSISTANT;
+                turns.add(new Turn(role, new String(c.texts[slot], StandardCharsets.UTF_8)));
+            }
+            return turns;
+        }
+    }
+
+    public void append(long userId, String prompt, String answer) {
+        if (conversations.size() >= maxConversations && !conversations.containsKey(userId)) sweep();
+        Conversation c = conversations.computeIfAbsent(userId, id -> new Conversation(maxTurns));
+        synchronized (c) {
+            add(c, ROLE_USER, prompt);
+            add(c, ROLE_ASSISTANT, answer);
+            c.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    public void clear(long userId) {
+        conversations.remove(userId);
+    }
+
+    public int size() {
+        return conversations.size();
+    }
+
+    // Drops idle conversations; when still over the cap, halves the idle window until it fits.
+    public void sweep() {
+        long window = idleMillis;
+        while (true) {
+            long cutoff = System.currentTimeMillis() - window;
+            Iterator<Conversation> it = conversations.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().lastUsed < cutoff) it.remove();
+            }
+            if (conversations.size() < maxConversations || window < 1000) return;
+            window /= 2;
+        }
+    }
+
+    private void add(Conversation c, byte role, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) bytes = truncate(bytes, maxBytes);
+        if (c.count == maxTurns) dropOldest(c);
+        int slot = (c.head + c.count) % maxTurns;
+        c.roles[slot] = role;
+        c.texts[slot] = bytes;
+        c.count++;
+        c.bytes += bytes.length;
+        // keep the stored history within what can be sent; the newest turn always stays
+        while (c.bytes > maxBytes && c.count > 1) dropOldest(c);
+    }
+
+    private void dropOldest(Conversation c) {
+        c.bytes -= c.texts[c.head].length;
+        c.texts[c.head] = null;
+        c.head = (c.head + 1) % maxTurns;
+        c.count--;
+    }
+
+    // keeps the tail of an over-long turn, which is what matters for context; skips a split UTF-8 sequence
+    private static byte[] truncate(byte[] bytes, int max) {
+        int from = bytes.length - max;
+        while (from < bytes.length && (bytes[from] & 0xC0) == 0x80) from++;
+        byte[] out = new byte[bytes.length - from];
+        System.arraycopy(bytes, from, out, 0, out.length);
+        return out;
+    }
+
+    private static final class Conversation {
+        private final byte[] roles;
+        private final byte[][] texts;
+        private int head;
+        private int count;
+        private int bytes;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Conversation(int maxTurns) {
+            this.roles = new byte[maxTurns];
+            this.texts = new byte[maxTurns][];
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package telegramaibot;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import okhttp3.MediaType;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Request bodies and response parsing for the REST engines, kept apart from the HTTP calls so the
+// CPU cost of each can be measured on its own (see src/jmh/java).
+// Both directions stream: payloads are written with JsonWriter straight into an okio buffer (its
+// segments are pooled), and responses are read with JsonReader off the body source, stopping as
+// soon as the answer text is found instead of building a tree of the whole document.
+final class EngineCodec {
+    static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    interface BodyParser<T> {
+        T parse(BufferedSource body) throws IOException;
+    }
+
+    private EngineCodec() {
+    }
+
+    // ---------------------------
+    // Gemini
+    // ---------------------------
+    // one contents entry per earlier turn, then the new prompt
+    static ByteString geminiPayload(EngineRequest req) throws IOException {
+        Buffer buffer = new Buffer();
+        try (JsonWriter out = writer(buffer)) {
+            out.beginObject().name("contents").beginArray();
+            for (ConversationStore.Turn t : req.getHistory()) {
+                geminiContent(out, ConversationStore.USER.equals(t.getRole()) ? "user" : "model", t.getText());
+            }
+            geminiContent(out, "user", req.getPrompt());
+            out.endArray();
+            if (req.getMaxTokens() > 0) {
+                // thinking tokens count against maxOutputTokens, and a sized limit leaves no room
+                // for them: a flash model would spend it all thinking and answer nothing
+                out.name("generationConfig").beginObject()
+                        .name("maxOutputTokens").value(req.getMaxTokens())
+                        .name("thinkingConfig").beginObject().name("thinkingBudget").value(0).endObject()
+                        .endObject();
+            }
+            out.endObject();
+        }
+        return buffer.readByteString();
+    }
+
+    private static void geminiContent(JsonWriter out, String role, String text) throws IOException {
+        out.beginObject()
+                .name("role").value(role)
+                .name("parts").beginArray()
+                .beginObject().name("text").value(text).endObject()
+                .endArray()
+                .endObject();
+    }
+
+    static String geminiResponseText(BufferedSource body) throws IOException {
+        String text = geminiText(reader(body), true);
+        if (text == null) throw new IOException("Unexpected Gemini response: no candidate text");
+        return text;
+    }
+
+    // text of one streamed chunk ("data:" payload); null when the event carries none
+    static String geminiStreamDelta(String data) throws IOException {
+        JsonReader in = new JsonReader(new StringReader(data));
+        in.setStrictness(Strictness.LENIENT);
+        return geminiText(in, false);
+    }
+
+    // candidates[0].content.parts[0].text, else (when allowed) a top-level "text"; null when neither
+    private static String geminiText(JsonReader in, boolean topLevelText) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) return null;
+        String fallback = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("candidates") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                String text = firstElement(in, EngineCodec::candidateText);
+                if (text != null) return text;
+            } else if (topLevelText && name.equals("text") && in.peek() == JsonToken.STRING) {
+                fallback = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        return fallback;
+    }
+
+    // The first part's text; "" when the candidate was cut off by the output limit before any
+    // text (no parts at all), so the call falls through to the next engine instead of failing.
+    private static String candidateText(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return null;
+        }
+        String finishReason = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("content")) {
+                String text = field(in, "parts", p -> firstElement(p, part -> field(part, "text", null)));
+                if (text != null) return text;
+            } else if (name.equals("finishReason") && in.peek() == JsonToken.STRING) {
+                finishReason = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return "MAX_TOKENS".equals(finishReason) ? "" : null;
+    }
+
+    // ---------------------------
+    // Hugging Face
+    // ---------------------------
+    // maxNewTokens 0 leaves the output length to the server
+    static ByteString huggingFacePayload(String prompt, int maxNewTokens) throws IOException {
+        Buffer buffer = new Buffer();
+        try (JsonWriter out = writer(buffer)) {
+            out.beginObject().name("inputs").value(prompt);
+            huggingFaceParameters(out, maxNewTokens);
+            out.endObject();
+        }
+        return buffer.readByteString();
+    }
+
+    // several prompts in one request: {"inputs": ["...", "..."]}
+    static ByteString huggingFaceBatchPayload(List<String> prompts, int maxNewTokens) throws IOException {
+        Buffer buffer = new Buffer();
+        try (JsonWriter out = writer(buffer)) {
+            out.beginObject().name("inputs").beginArray();
+            for (String prompt : prompts) out.value(prompt);
+            out.endArray();
+            huggingFaceParameters(out, maxNewTokens);
+            out.endObject();
+        }
+        return buffer.readByteString();
+    }
+
+    private static void huggingFaceParameters(JsonWriter out, int maxNewTokens) throws IOException {
+        if (maxNewTokens > 0) out.name("parameters").beginObject().name("max_new_tokens").value(maxNewTokens).endObject();
+    }
+
+    // One output per input, in order. Pipelines answer [[{"generated_text": ...}], ...]; some
+    // servers flatten that to [{"generated_text": ...}, ...].
+    static List<String> huggingFaceBatchTexts(BufferedSource body, int expected) throws IOException {
+        JsonReader in = reader(body);
+        if (in.peek() != JsonToken.BEGIN_ARRAY) throw new IOException("Unexpected HuggingFace batch response");
+        List<String> texts = new ArrayList<>(expected);
+        in.beginArray();
+        while (in.hasNext()) {
+            String text = null;
+            if (in.peek() == JsonToken.BEGIN_OBJECT) {
+                text = huggingFaceOutput(in, true);
+            } else if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+                if (in.hasNext() && in.peek() == JsonToken.BEGIN_OBJECT) text = huggingFaceOutput(in, true);
+                while (in.hasNext()) in.skipValue();
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+            if (text == null) throw new IOException("Unexpected HuggingFace batch response: output " + texts.size() + " has no text");
+            texts.add(text);
+        }
+        if (texts.size() != expected) {
+            throw new IOException("HuggingFace returned " + texts.size() + " outputs for " + expected + " inputs");
+        }
+        return texts;
+    }
+
+    // [{"generated_text": ...}] normally; otherwise the first string field of the first output,
+    // or an object with generated_text / text
+    static String huggingFaceResponseText(BufferedSource body) throws IOException {
+        JsonReader in = reader(body);
+        String text = null;
+        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+            in.beginArray();
+            if (in.hasNext() && in.peek() == JsonToken.BEGIN_OBJECT) text = huggingFaceOutput(in, true);
+        } else if (in.peek() == JsonToken.BEGIN_OBJECT) {
+            text = huggingFaceOutput(in, false);
+        }
+        if (text == null) throw new IOException("Unexpected HuggingFace response: no generated text");
+        return text;
+    }
+
+    // consumes the whole object so batched outputs can be read one after another
+    private static String huggingFaceOutput(JsonReader in, boolean anyString) throws IOException {
+        String generated = null;
+        String other = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() != JsonToken.STRING) {
+                in.skipValue();
+            } else if (generated == null && name.equals("generated_text")) {
+                generated = in.nextString();
+            } else if (other == null && (anyString || name.equals("text"))) {
+                other = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return generated != null ? generated : other;
+    }
+
+    // ---------------------------
+    // streaming helpers
+    // ---------------------------
+    private interface ValueReader {
+        String read(JsonReader in) throws IOException;
+    }
+
+    // Reads the named member of the object at the cursor with next (or as a string when next is
+    // null). Returns as soon as a value is found; otherwise consumes the object and returns null.
+    private static String field(JsonReader in, String wanted, ValueReader next) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return null;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (!name.equals(wanted)) {
+                in.skipValue();
+            } else if (next != null) {
+                String r = next.read(in);
+                if (r != null) return r;
+            } else if (in.peek() == JsonToken.STRING) {
+                return in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return null;
+    }
+
+    // Reads only the first element of the array at the cursor; the rest is skipped.
+    private static String firstElement(JsonReader in, ValueReader element) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return null;
+        }
+        in.beginArray();
+        if (in.hasNext()) {
+            String r = element.read(in);
+            if (r != null) return r;
+        }
+        while (in.hasNext()) in.skipValue();
+        in.endArray();
+        return null;
+    }
+
+    private static JsonReader reader(BufferedSource body) {
+        JsonReader in = new JsonReader(new SourceReader(body));
+        in.setStrictness(Strictness.LENIENT);
+        return in;
+    }
+
+    private static JsonWriter writer(Buffer buffer) {
+        return new JsonWriter(new OutputStreamWriter(buffer.outputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Decodes UTF-8 straight out of the source's own buffer. InputStreamReader would add a private
+    // 8 KiB byte buffer and a decoder per response, more than a typical answer itself.
+    private static final class SourceReader extends Reader {
+        private final BufferedSource source;
+        private final Buffer buffer;
+        // second half of a surrogate pair that did not fit into the previous read
+        private int pendingLow = -1;
+
+        private SourceReader(BufferedSource source) {
+            this.source = source;
+            this.buffer = source.getBuffer();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            int n = 0;
+            if (pendingLow >= 0) {
+                cbuf[off + n++] = (char) pendingLow;
+                pendingLow = -1;
+            }
+            // block for the first character only; after that take what is already buffered
+            if (n == 0 && source.exhausted()) return -1;
+            while (n < len && buffer.size() > 0) {
+                byte b = buffer.getByte(0);
+                if (b >= 0) {
+                    buffer.skip(1);
+                    cbuf[off + n++] = (char) b;
+                    continue;
+                }
+                int codePoint = source.readUtf8CodePoint();
+                if (Character.isBmpCodePoint(codePoint)) {
+                    cbuf[off + n++] = (char) codePoint;
+                } else {
+                    cbuf[off + n++] = Character.highSurrogate(codePoint);
+                    if (n < len) cbuf[off + n++] = Character.lowSurrogate(codePoint);
+                    else pendingLow = Character.lowSurrogate(codePoint);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // the response owns the source
+        }
+    }
+}
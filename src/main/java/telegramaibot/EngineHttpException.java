@@ -0,0 +1,17 @@
+package telegramaibot;
+
+import java.io.IOException;
+
+// Non-2xx answer from an engine's REST API; keeps the status so callers can tell 429 from 5xx.
+public class EngineHttpException extends IOException {
+    private final int statusCode;
+
+    public EngineHttpException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,48 @@
+package telegramaibot;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Caps how many calls may be in flight against each AI engine at once, so a slow
+// provider cannot tie up every worker thread.
+public class EngineLimiter {
+    private final int defaultLimit;
+    private final Map<String, Integer> overrides;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public EngineLimiter(int defaultLimit, Map<String, Integer> overrides) {
+        this.defaultLimit = defaultLimit;
+        this.overrides = overrides;
+    }
+
+    public <T> T call(String engine, Callable<T> fn) throws Exception {
+        return call(engine, Long.MAX_VALUE, fn);
+    }
+
+    // Waits at most timeoutMillis for a free slot, so queueing behind a slow engine counts
+    // against the caller's deadline.
+    public <T> T call(String engine, long timeoutMillis, Callable<T> fn) throws Exception {
+        Semaphore s = permits.computeIfAbsent(engine,
+                e -> new Semaphore(Math.max(1, overrides.getOrDefault(e, defaultLimit)), true));
+        if (timeoutMillis == Long.MAX_VALUE) {
+            s.acquire();
+        } else if (!s.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(engine + " is busy: no free slot before the deadline");
+        }
+        try {
+            return fn.call();
+        } finally {
+            s.release();
+        }
+    }
+
+    public int inFlight(String engine) {
+        Semaphore s = permits.get(engine);
+        if (s == null) return 0;
+        return Math.max(1, overrides.getOrDefault(engine, defaultLimit)) - s.availablePermits();
+    }
+}
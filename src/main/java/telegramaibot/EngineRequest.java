@@ -0,0 +1,88 @@
+package telegramaibot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+// What is sent to an engine for one message: the new prompt plus the conversation so far.
+public class EngineRequest {
+    private final String prompt;
+    private final List<ConversationStore.Turn> history;
+    // answer latency to aim for; 0 uses the configured target
+    private final long targetMillis;
+    // output token limit (a ceiling until the request is sized for an engine); 0 uses the configured one
+    private final int maxTokens;
+    // model to ask; null uses the engine's default
+    private final String model;
+
+    public EngineRequest(String prompt, List<ConversationStore.Turn> history) {
+        this(prompt, history, 0, 0, null);
+    }
+
+    private EngineRequest(String prompt, List<ConversationStore.Turn> history, long targetMillis, int maxTokens, String model) {
+        this.prompt = prompt;
+        this.history = history;
+        this.targetMillis = targetMillis;
+        this.maxTokens = maxTokens;
+        this.model = model;
+    }
+
+    public static EngineRequest of(String prompt) {
+        return new EngineRequest(prompt, Collections.emptyList());
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public List<ConversationStore.Turn> getHistory() {
+        return history;
+    }
+
+    public long getTargetMillis() {
+        return targetMillis;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public EngineRequest withTarget(long targetMillis, int maxTokens) {
+        return new EngineRequest(prompt, history, targetMillis, maxTokens, model);
+    }
+
+    public EngineRequest withLimits(int maxTokens, String model) {
+        return new EngineRequest(prompt, history, targetMillis, maxTokens, model);
+    }
+
+    // Distinguishes cache and coalescing keys of the same prompt asked in different conversations:
+    // SHA-256 over each turn's role and text, both length-prefixed so turn boundaries cannot shift.
+    public String contextKey() {
+        if (history.isEmpty()) return "";
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (ConversationStore.Turn t : history) {
+            update(digest, t.getRole());
+            update(digest, t.getText());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(b.length).array());
+        digest.update(b);
+    }
+}
@@ -0,0 +1,159 @@
+package telegramaibot;
+
+import com.theokanning.openai.OpenAiHttpException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps rolling health stats per engine and a circuit breaker in front of each one, so the
+// fallback order can prefer fast, healthy engines and skip the ones that are currently down.
+public class EngineRouter {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final double ERROR_PENALTY_MS = 60_000;
+
+    private final BotConfigurationProperties.Router config;
+    private final Map<String, EngineHealth> engines = new ConcurrentHashMap<>();
+
+    public EngineRouter(BotConfigurationProperties.Router config) {
+        this.config = config;
+    }
+
+    // Without a user choice engines are ranked by health; with one the user's order is kept.
+    // Either way, engines whose breaker is open are skipped.
+    public List<String> route(List<String> order, boolean userChoice) {
+        List<String> routed = new ArrayList<>(order.size());
+        for (String engine : order) {
+            if (health(engine).available()) routed.add(engine);
+        }
+        if (!userChoice && config.isAdaptiveOrder()) {
+            // engines without stats score 0 and get explored first; the stable sort keeps ties in default order
+            routed.sort(Comparator.comparingDouble(e -> health(e).score()));
+        }
+        return routed;
+    }
+
+    // Called right before an engine call; in half-open state only one probe is let through.
+    public boolean tryAcquire(String engine) {
+        return health(engine).tryAcquire();
+    }
+
+    public void recordSuccess(String engine, long latencyMillis) {
+        health(engine).onSuccess(latencyMillis);
+    }
+
+    public void recordFailure(String engine, long latencyMillis, Throwable error) {
+        health(engine).onFailure(latencyMillis, statusOf(error));
+    }
+
+    // An attempt that was cancelled says nothing about engine health; just free the probe slot.
+    public void recordCancelled(String engine) {
+        EngineHealth h = health(engine);
+        synchronized (h) {
+            h.probe = null;
+        }
+    }
+
+    // Called on the thread that passed tryAcquire once its attempt ends, however it ended. A call
+    // that reached the engine has already settled the breaker; an answer from the cache or from a
+    // coalesced call, or a timeout waiting for an engine slot, has not, and must not keep the
+    // half-open probe taken.
+    public void release(String engine) {
+        EngineHealth h = health(engine);
+        synchronized (h) {
+            if (h.probe == Thread.currentThread()) h.probe = null;
+        }
+    }
+
+    public State state(String engine) {
+        EngineHealth h = health(engine);
+        synchronized (h) {
+            return h.state;
+        }
+    }
+
+    public String describe(String engine) {
+        EngineHealth h = health(engine);
+        synchronized (h) {
+            return String.format("%s state=%s ewmaLatencyMs=%.0f errorRate=%.2f calls=%d 429=%d 5xx=%d",
+                    engine, h.state, h.ewmaLatency, h.errorRate, h.calls, h.throttled, h.serverErrors);
+        }
+    }
+
+    private EngineHealth health(String engine) {
+        return engines.computeIfAbsent(engine, e -> new EngineHealth());
+    }
+
+    static int statusOf(Throwable error) {
+        if (error instanceof EngineHttpException) return ((EngineHttpException) error).getStatusCode();
+        if (error instanceof OpenAiHttpException) return ((OpenAiHttpException) error).statusCode;
+        return -1;
+    }
+
+    private final class EngineHealth {
+        private State state = State.CLOSED;
+        private double ewmaLatency;
+        private double errorRate;
+        private long calls;
+        private long throttled;
+        private long serverErrors;
+        private int consecutiveFailures;
+        private long openedAt;
+        // the thread holding the half-open probe, null when none is in flight
+        private Thread probe;
+
+        synchronized boolean available() {
+            return state != State.OPEN || System.currentTimeMillis() - openedAt >= config.getOpenMs();
+        }
+
+        synchronized boolean tryAcquire() {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < config.getOpenMs()) return false;
+                state = State.HALF_OPEN;
+                probe = null;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probe != null) return false;
+                probe = Thread.currentThread();
+            }
+            return true;
+        }
+
+        synchronized void onSuccess(long latencyMillis) {
+            sample(latencyMillis, 0);
+            consecutiveFailures = 0;
+            probe = null;
+            state = State.CLOSED;
+        }
+
+        synchronized void onFailure(long latencyMillis, int status) {
+            sample(latencyMillis, 1);
+            if (status == 429) throttled++;
+            if (status >= 500) serverErrors++;
+            consecutiveFailures++;
+            probe = null;
+            boolean tripped = consecutiveFailures >= config.getFailureThreshold()
+                    || (calls >= config.getMinCalls() && errorRate >= config.getErrorRateThreshold());
+            if (state == State.HALF_OPEN || tripped) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+
+        // lower is better; errors cost a flat penalty so an engine that fails fast never ranks first
+        synchronized double score() {
+            return ewmaLatency + errorRate * ERROR_PENALTY_MS;
+        }
+
+        private void sample(long latencyMillis, double failed) {
+            double a = config.getEwmaAlpha();
+            ewmaLatency = calls == 0 ? latencyMillis : a * latencyMillis + (1 - a) * ewmaLatency;
+            errorRate = calls == 0 ? failed : a * failed + (1 - a) * errorRate;
+            calls++;
+        }
+    }
+}
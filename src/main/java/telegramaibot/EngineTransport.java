@@ -0,0 +1,257 @@
+package telegramaibot;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One HTTP transport for every engine: a shared dispatcher and connection pool (HTTP/2 where the
+// provider negotiates it, so concurrent calls multiplex over one connection), cached DNS, and
+// connections opened ahead of the first real request. OpenAI gets a view of the same client with
+// its auth header added, so it shares the pool too.
+// The dispatcher's request limits only apply to enqueued calls, and engine calls are blocking, so
+// the same limits are enforced by an interceptor that holds a permit until the response is closed.
+// The client is built on first use: that loads the TLS stack and trust store, which costs about a
+// second on a cold JVM and has no business delaying startup.
+public class EngineTransport {
+    private static final Logger log = LoggerFactory.getLogger(EngineTransport.class);
+
+    private final BotConfigurationProperties.Transport config;
+    private final List<String> warmUrls = new CopyOnWriteArrayList<>();
+    private volatile OkHttpClient client;
+
+    public EngineTransport(BotConfigurationProperties.Transport config) {
+        this.config = config;
+    }
+
+    public OkHttpClient client() {
+        OkHttpClient c = client;
+        if (c == null) {
+            synchronized (this) {
+                c = client;
+                if (c == null) client = c = build(config);
+            }
+        }
+        return c;
+    }
+
+    private static OkHttpClient build(BotConfigurationProperties.Transport config) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .addInterceptor(new RequestLimiter(config.getMaxRequests(), config.getMaxRequestsPerHost()))
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAliveSeconds(), TimeUnit.SECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .dns(config.getDnsCacheSeconds() > 0 ? new CachingDns(config.getDnsCacheSeconds()) : Dns.SYSTEM)
+                .connectTimeout(config.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeoutMs(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    // Same pool and dispatcher, every request carrying the bearer token.
+    public OkHttpClient withBearer(String token) {
+        return client().newBuilder()
+                .addInterceptor(chain -> chain.proceed(chain.request().newBuilder()
+                        .header("Authorization", "Bearer " + token)
+                        .build()))
+                .build();
+    }
+
+    // Remembers a provider base URL and opens a connection to it in the background.
+    public void warm(String baseUrl) {
+        warmUrls.add(baseUrl);
+        touch(baseUrl);
+    }
+
+    // Re-touches every known provider so its pooled connection does not idle out.
+    public void keepWarm() {
+        for (String url : warmUrls) touch(url);
+    }
+
+    public int connections() {
+        OkHttpClient c = client;
+        return c != null ? c.connectionPool().connectionCount() : 0;
+    }
+
+    public int idleConnections() {
+        OkHttpClient c = client;
+        return c != null ? c.connectionPool().idleConnectionCount() : 0;
+    }
+
+    public void shutdown() {
+        OkHttpClient c = client;
+        if (c == null) return;
+        c.dispatcher().executorService().shutdown();
+        c.connectionPool().evictAll();
+    }
+
+    // A HEAD on the API root costs one round trip and leaves a ready TLS connection in the pool;
+    // the status (usually 404 or 401) does not matter.
+    private void touch(String url) {
+        Request request = new Request.Builder().url(url).head().build();
+        client().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                log.debug("Could not pre-warm {}: {}", url, e.getMessage());
+            }
+        });
+    }
+
+    // Caps requests in flight overall and per host, blocking calls included. A waiting call gives up
+    // when it is cancelled (deadline, lost hedge); the permits go back when the response body is closed.
+    private static final class RequestLimiter implements Interceptor {
+        private static final long POLL_MILLIS = 50;
+
+        private final Semaphore total;
+        private final int perHost;
+        private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+        private RequestLimiter(int maxRequests, int maxRequestsPerHost) {
+            this.total = new Semaphore(Math.max(1, maxRequests));
+            this.perHost = Math.max(1, maxRequestsPerHost);
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Semaphore host = hosts.computeIfAbsent(chain.request().url().host(), h -> new Semaphore(perHost));
+            acquire(chain, total);
+            try {
+                acquire(chain, host);
+            } catch (IOException e) {
+                total.release();
+                throw e;
+            }
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    host.release();
+                    total.release();
+                }
+            };
+            try {
+                Response response = chain.proceed(chain.request());
+                if (response.body() == null) {
+                    release.run();
+                    return response;
+                }
+                return response.newBuilder().body(new ReleasingBody(response.body(), release)).build();
+            } catch (IOException | RuntimeException e) {
+                release.run();
+                throw e;
+            }
+        }
+
+        private static void acquire(Chain chain, Semaphore permits) throws IOException {
+            try {
+                while (!permits.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (chain.call().isCanceled()) throw new IOException("Canceled");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for a request slot", e);
+            }
+        }
+    }
+
+    private static final class ReleasingBody extends ResponseBody {
+        private final ResponseBody body;
+        private final BufferedSource source;
+
+        private ReleasingBody(ResponseBody body, Runnable release) {
+            this.body = body;
+            this.source = Okio.buffer(new ForwardingSource(body.source()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release.run();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return body.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+
+    // Caches lookups for ttl; when a refresh fails the last known addresses are served instead.
+    private static final class CachingDns implements Dns {
+        private final long ttlNanos;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        private CachingDns(long ttlSeconds) {
+            this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            Entry e = entries.get(hostname);
+            long now = System.nanoTime();
+            if (e != null && now < e.expiresAt) return e.addresses;
+            try {
+                List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+                entries.put(hostname, new Entry(addresses, now + ttlNanos));
+                return addresses;
+            } catch (UnknownHostException ex) {
+                if (e == null) throw ex;
+                log.debug("DNS refresh of {} failed, using cached addresses", hostname);
+                return e.addresses;
+            }
+        }
+
+        private static final class Entry {
+            private final List<InetAddress> addresses;
+            private final long expiresAt;
+
+            private Entry(List<InetAddress> addresses, long expiresAt) {
+                this.addresses = addresses;
+                this.expiresAt = expiresAt;
+            }
+        }
+    }
+}
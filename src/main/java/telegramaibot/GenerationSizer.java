@@ -0,0 +1,94 @@
+package telegramaibot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Picks the output limit of each engine call so answers arrive within a latency target.
+// A call is modelled as a fixed overhead (connection, queueing, prompt processing) plus the output
+// tokens at the model's generation speed. The speed is learned per model from finished calls
+// (answer length / time past the overhead, smoothed); the limit is what fits into the time left.
+// When that is too little for a useful answer and the engine has a faster variant configured,
+// the call goes to the fast model instead.
+public class GenerationSizer {
+    // rough size of a token in characters for the engines' tokenizers on English text
+    private static final int CHARS_PER_TOKEN = 4;
+    // answers shorter than this are mostly overhead and say little about the generation speed
+    private static final int MIN_SAMPLE_TOKENS = 32;
+    private static final double ALPHA = 0.2;
+    private static final int STEP = 64;
+
+    private final BotConfigurationProperties.Generation config;
+    private final BotMetrics metrics;
+    private final Map<String, Double> tokensPerSecond = new ConcurrentHashMap<>();
+
+    public GenerationSizer(BotConfigurationProperties.Generation config, BotMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    // The latency target and token ceiling that apply to this user and command (ai for /ai,
+    // chat for ordinary messages). A user override beats a command override.
+    public EngineRequest target(EngineRequest req, Long userId, String command) {
+        BotConfigurationProperties.Generation.Limit o = userId == null ? null : config.getUsers().get(userId.toString());
+        if (o == null) o = config.getCommands().get(command);
+        return o == null ? req : req.withTarget(o.getTargetMs(), o.getMaxTokens());
+    }
+
+    // The request as it goes to this engine: its output limit and, when the default model cannot
+    // fit a useful answer into the time left, the engine's fast model.
+    public EngineRequest size(String engine, String model, EngineRequest req, long remainingMillis) {
+        int ceiling = req.getMaxTokens() > 0 ? req.getMaxTokens() : config.getMaxTokens();
+        if (!config.isEnabled()) return record(engine, req.withLimits(ceiling, model), model);
+        long target = req.getTargetMillis() > 0 ? req.getTargetMillis() : config.getTargetMs();
+        target = Math.min(target, remainingMillis);
+        long fits = fits(model, target);
+        String fast = config.getFastModels().get(engine);
+        if (fits < config.getFastModelBelowTokens() && fast != null && !fast.isBlank() && !fast.equals(model)) {
+            model = fast;
+            fits = fits(fast, target);
+        }
+        return record(engine, req.withLimits(limit(fits, ceiling), model), model);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    // Output limit for a Hugging Face batch: the prompts in it share one max_new_tokens.
+    public int batchLimit(String model, long remainingMillis) {
+        if (!config.isEnabled()) return config.getMaxTokens();
+        return limit(fits(model, Math.min(config.getTargetMs(), remainingMillis)), config.getMaxTokens());
+    }
+
+    // Feeds one finished call into the model's speed estimate.
+    public void observe(String model, String answer, long tookMillis) {
+        if (model == null || answer == null) return;
+        int tokens = answer.length() / CHARS_PER_TOKEN;
+        if (tokens < MIN_SAMPLE_TOKENS) return;
+        long generating = Math.max(1, tookMillis - config.getOverheadMs());
+        double sample = tokens * 1000.0 / generating;
+        tokensPerSecond.merge(model, sample, (old, s) -> old + ALPHA * (s - old));
+    }
+
+    public double tokensPerSecond(String model) {
+        return tokensPerSecond.getOrDefault(model, config.getInitialTokensPerSecond());
+    }
+
+    // Rounded down to a multiple of STEP, so the limit (part of the coalescing key) holds still while
+    // the speed estimate drifts a little.
+    private int limit(long fits, int ceiling) {
+        long stepped = fits / STEP * STEP;
+        return (int) Math.max(config.getMinTokens(), Math.min(ceiling, stepped));
+    }
+
+    private long fits(String model, long targetMillis) {
+        long generating = targetMillis - config.getOverheadMs();
+        if (generating <= 0) return 0;
+        return (long) (generating * tokensPerSecond(model) / 1000.0);
+    }
+
+    private EngineRequest record(String engine, EngineRequest sized, String model) {
+        metrics.generationLimit(engine, model, sized.getMaxTokens());
+        return sized;
+    }
+}
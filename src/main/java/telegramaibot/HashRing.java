@@ -0,0 +1,70 @@
+package telegramaibot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Consistent hashing of chat ids onto worker nodes. Each node owns virtualNodes points on a 64 bit
+// ring and a chat belongs to the first point at or after its own hash, so a node joining or
+// leaving only moves the chats next to its points (about 1/N of them); everyone else keeps their
+// worker. Immutable: a membership change builds a new ring.
+public final class HashRing {
+    private final List<String> nodes;
+    // sorted ring positions, and the node owning each
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = List.copyOf(nodes);
+        Map<Long, String> ring = new TreeMap<>();
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) ring.put(hash(node, i), node);
+        }
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> e : ring.entrySet()) {
+            points[i] = e.getKey();
+            owners[i++] = e.getValue();
+        }
+    }
+
+    // null when the ring is empty
+    public String nodeFor(long key) {
+        if (points.length == 0) return null;
+        int i = Arrays.binarySearch(points, mix(key));
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    // FNV-1a over the node name, then the replica number, finished with mix()
+    private static long hash(String node, int replica) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h ^ replica * 0x9E3779B97F4A7C15L);
+    }
+
+    // MurmurHash3's 64 bit finalizer: sequential chat ids land all over the ring
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
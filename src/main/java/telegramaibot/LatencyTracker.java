@@ -0,0 +1,41 @@
+package telegramaibot;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the most recent successful call latencies per engine and answers percentile queries.
+public class LatencyTracker {
+    private static final int WINDOW = 256;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    public void record(String engine, long millis) {
+        Window w = windows.computeIfAbsent(engine, e -> new Window());
+        synchronized (w) {
+            w.samples[w.next] = millis;
+            w.next = (w.next + 1) % WINDOW;
+            if (w.count < WINDOW) w.count++;
+        }
+    }
+
+    // Returns -1 until enough samples exist to make the percentile meaningful.
+    public long percentile(String engine, double pct) {
+        Window w = windows.get(engine);
+        if (w == null) return -1;
+        long[] copy;
+        synchronized (w) {
+            if (w.count < 20) return -1;
+            copy = Arrays.copyOf(w.samples, w.count);
+        }
+        Arrays.sort(copy);
+        int idx = (int) Math.ceil(pct / 100.0 * copy.length) - 1;
+        return copy[Math.max(0, Math.min(idx, copy.length - 1))];
+    }
+
+    private static final class Window {
+        private final long[] samples = new long[WINDOW];
+        private int next;
+        private int count;
+    }
+}
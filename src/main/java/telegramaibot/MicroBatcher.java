@@ -0,0 +1,146 @@
+package telegramaibot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Groups concurrent calls into one upstream request. A batch goes out when it reaches maxBatchSize
+// or maxWait after its first input arrived, whichever comes first; each caller blocks until its own
+// output is back. As with coalescing, a caller giving up only cancels the upstream request once
+// every caller in the batch has left.
+public class MicroBatcher {
+
+    public interface BatchCall {
+        // one output per input, in the same order
+        List<String> call(List<String> inputs, CallScope scope) throws Exception;
+    }
+
+    private final int maxBatchSize;
+    private final long maxWaitMillis;
+    private final ExecutorService executor;
+    private final BatchCall fn;
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(UpdateDispatcher.namedThreads("bot-batch-"));
+
+    // guarded by this
+    private Batch open;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+
+    public MicroBatcher(int maxBatchSize, long maxWaitMillis, ExecutorService executor, BatchCall fn) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitMillis = maxWaitMillis;
+        this.executor = executor;
+        this.fn = fn;
+    }
+
+    public String call(String input, CallScope waiterScope) throws Exception {
+        Batch batch;
+        int index;
+        boolean full;
+        synchronized (this) {
+            if (open == null) {
+                open = new Batch();
+                Batch first = open;
+                open.timer = timer.schedule(() -> sendIfOpen(first), maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            batch = open;
+            index = batch.inputs.size();
+            batch.inputs.add(input);
+            batch.waiters++;
+            full = batch.inputs.size() >= maxBatchSize;
+            if (full) open = null;
+        }
+        if (full) {
+            batch.timer.cancel(false);
+            send(batch);
+        }
+
+        CompletableFuture<String> mine = batch.result.thenApply(outputs -> outputs.get(index));
+        try {
+            waiterScope.onCancel(() -> mine.cancel(false));
+            return mine.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException | CancellationException e) {
+            leave(batch);
+            throw e;
+        }
+    }
+
+    public long batchCount() {
+        return batches.get();
+    }
+
+    public long itemCount() {
+        return items.get();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void sendIfOpen(Batch batch) {
+        synchronized (this) {
+            if (open != batch) return;
+            open = null;
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        batches.incrementAndGet();
+        items.addAndGet(batch.inputs.size());
+        try {
+            executor.execute(() -> {
+                if (batch.scope.isCancelled()) {
+                    batch.result.cancel(false);
+                    return;
+                }
+                try {
+                    List<String> outputs = fn.call(batch.inputs, batch.scope);
+                    if (outputs.size() != batch.inputs.size()) {
+                        throw new IllegalStateException("Expected " + batch.inputs.size() + " outputs, got " + outputs.size());
+                    }
+                    batch.result.complete(outputs);
+                } catch (Throwable t) {
+                    batch.result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batch.result.completeExceptionally(e);
+        }
+    }
+
+    private void leave(Batch batch) {
+        synchronized (this) {
+            if (--batch.waiters > 0) return;
+            // nobody is left to read it; do not let new callers join a batch that will never be sent
+            if (open == batch) {
+                open = null;
+                batch.timer.cancel(false);
+            }
+        }
+        batch.scope.cancel();
+    }
+
+    private static final class Batch {
+        // inputs are only added while the batch is open, under the batcher lock
+        private final List<String> inputs = new ArrayList<>();
+        private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+        private final CallScope scope = new CallScope();
+        private ScheduledFuture<?> timer;
+        private int waiters;
+    }
+}
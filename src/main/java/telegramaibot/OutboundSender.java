@@ -0,0 +1,233 @@
+package telegramaibot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Delivery pipeline for everything the bot sends. Callers enqueue and get a future back; a single
+// scheduler thread owns all queue state and applies Telegram's global and per-chat rate limits.
+// Each chat has at most one request in flight so its messages arrive in order, while requests for
+// different chats are pipelined through executeAsync. 429 answers pause the chat for retry_after,
+// other transient failures are retried with exponential backoff.
+public class OutboundSender {
+    private static final Logger log = LoggerFactory.getLogger(OutboundSender.class);
+
+    private final AbsSender sender;
+    private final BotConfigurationProperties.Outbound config;
+    private final BotMetrics metrics;
+    private final ScheduledExecutorService loop =
+            Executors.newSingleThreadScheduledExecutor(UpdateDispatcher.namedThreads("bot-outbound-"));
+    private final TokenBucket global;
+
+    // owned by the loop thread
+    private final Map<String, ChatQueue> chats = new HashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private volatile double ewmaLatencyMillis;
+
+    public OutboundSender(AbsSender sender, BotConfigurationProperties.Outbound config, BotMetrics metrics) {
+        this.sender = sender;
+        this.config = config;
+        this.metrics = metrics;
+        this.global = new TokenBucket(config.getGlobalPerSecond(), config.getGlobalPerSecond());
+        loop.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public <T extends Serializable> CompletableFuture<T> submit(String chatId, BotApiMethod<T> method) {
+        return submit(chatId, null, method);
+    }
+
+    // A queued request with the same replaceKey is superseded instead of sent, e.g. an older
+    // progressive edit of the same message.
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> CompletableFuture<T> submit(String chatId, String replaceKey, BotApiMethod<T> method) {
+        Outgoing<T> out = new Outgoing<>(method, replaceKey);
+        queued.incrementAndGet();
+        loop.execute(() -> {
+            ChatQueue chat = chats.computeIfAbsent(chatId, ChatQueue::new);
+            if (replaceKey != null) {
+                Iterator<Outgoing<?>> it = chat.pending.iterator();
+                // the head is already on the wire while a request is in flight
+                if (chat.inFlight && it.hasNext()) it.next();
+                while (it.hasNext()) {
+                    Outgoing<?> o = it.next();
+                    if (replaceKey.equals(o.replaceKey)) {
+                        it.remove();
+                        queued.decrementAndGet();
+                        // the superseded caller gets whatever the newer request produces
+                        out.result.whenComplete((r, e) -> complete((Outgoing<Serializable>) o, r, e));
+                    }
+                }
+            }
+            chat.pending.add(out);
+            pump(chat);
+        });
+        return out.result;
+    }
+
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    public double sendLatencyMillis() {
+        return ewmaLatencyMillis;
+    }
+
+    public long sentCount() {
+        return sent.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    public long throttledCount() {
+        return throttled.get();
+    }
+
+    public void shutdown() {
+        loop.shutdown();
+        try {
+            loop.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs on the loop thread: send the chat's next request if limits allow, otherwise wake up later.
+    private void pump(ChatQueue chat) {
+        if (chat.inFlight || chat.wakeScheduled || chat.pending.isEmpty()) return;
+        long now = System.nanoTime();
+        long wait = Math.max(chat.pausedUntil - now, chat.bucket.nanosUntilAvailable());
+        if (wait <= 0) wait = global.nanosUntilAvailable();
+        if (wait > 0 || !chat.bucket.tryConsume() || !global.tryConsume()) {
+            chat.wakeScheduled = true;
+            loop.schedule(() -> {
+                chat.wakeScheduled = false;
+                pump(chat);
+            }, Math.max(wait, TimeUnit.MILLISECONDS.toNanos(5)), TimeUnit.NANOSECONDS);
+            return;
+        }
+        Outgoing<?> out = chat.pending.peek();
+        chat.inFlight = true;
+        send(chat, out);
+    }
+
+    private <T extends Serializable> void send(ChatQueue chat, Outgoing<T> out) {
+        long started = System.nanoTime();
+        CompletableFuture<T> call;
+        try {
+            call = sender.executeAsync(out.method);
+        } catch (TelegramApiException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((r, e) -> loop.execute(() -> onResult(chat, out, r, e, started)));
+    }
+
+    private <T extends Serializable> void onResult(ChatQueue chat, Outgoing<T> out, T r, Throwable e, long started) {
+        chat.inFlight = false;
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        long nanos = System.nanoTime() - started;
+        metrics.telegramSend(out.method.getMethod(), cause == null ? "success"
+                : isThrottled(cause) ? "throttled" : "error", nanos);
+        if (cause == null) {
+            double took = nanos / 1_000_000d;
+            ewmaLatencyMillis = ewmaLatencyMillis == 0 ? took : 0.1 * took + 0.9 * ewmaLatencyMillis;
+            sent.incrementAndGet();
+            finish(chat, out, r, null);
+        } else if (isThrottled(cause)) {
+            throttled.incrementAndGet();
+            Integer retryAfter = ((TelegramApiRequestException) cause).getParameters().getRetryAfter();
+            chat.pausedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter != null ? retryAfter : 1);
+            log.debug("Telegram throttled chat {}, retrying in {}s", chat.chatId, retryAfter);
+        } else if (isRetryable(cause) && ++out.attempts < config.getMaxAttempts()) {
+            long backoff = config.getBackoffMs() << Math.min(out.attempts - 1, 10);
+            chat.pausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        } else {
+            failed.incrementAndGet();
+            log.warn("Telegram {} to chat {} failed: {}", out.method.getMethod(), chat.chatId, cause.getMessage());
+            finish(chat, out, null, cause);
+        }
+        chat.lastActive = System.nanoTime();
+        pump(chat);
+    }
+
+    // Idle chats are kept for a while so their rate-limit state survives between messages.
+    private void evictIdle() {
+        long cutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(1);
+        chats.values().removeIf(c -> !c.inFlight && !c.wakeScheduled && c.pending.isEmpty() && c.lastActive < cutoff);
+    }
+
+    private <T extends Serializable> void finish(ChatQueue chat, Outgoing<T> out, T r, Throwable e) {
+        chat.pending.poll();
+        queued.decrementAndGet();
+        complete(out, r, e);
+    }
+
+    private static <T extends Serializable> void complete(Outgoing<T> out, T r, Throwable e) {
+        if (e == null) out.result.complete(r);
+        else out.result.completeExceptionally(e);
+    }
+
+    private static boolean isThrottled(Throwable e) {
+        return e instanceof TelegramApiRequestException
+                && Integer.valueOf(429).equals(((TelegramApiRequestException) e).getErrorCode())
+                && ((TelegramApiRequestException) e).getParameters() != null;
+    }
+
+    // 4xx answers (blocked by user, bad request) will not succeed on retry
+    private static boolean isRetryable(Throwable e) {
+        if (!(e instanceof TelegramApiRequestException)) return true;
+        Integer code = ((TelegramApiRequestException) e).getErrorCode();
+        return code == null || code == 429 || code >= 500;
+    }
+
+    private final class ChatQueue {
+        private final String chatId;
+        private final ArrayDeque<Outgoing<?>> pending = new ArrayDeque<>();
+        private final TokenBucket bucket;
+        private boolean inFlight;
+        private boolean wakeScheduled;
+        private long pausedUntil;
+        private long lastActive = System.nanoTime();
+
+        private ChatQueue(String chatId) {
+            this.chatId = chatId;
+            // group and channel ids are negative; Telegram allows them far fewer messages per minute
+            this.bucket = chatId.startsWith("-")
+                    ? new TokenBucket(config.getGroupPerMinute() / 60d, config.getGroupBurst())
+                    : new TokenBucket(config.getChatPerSecond(), config.getChatBurst());
+        }
+    }
+
+    private static final class Outgoing<T extends Serializable> {
+        private final BotApiMethod<T> method;
+        private final String replaceKey;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int attempts;
+
+        private Outgoing(BotApiMethod<T> method, String replaceKey) {
+            this.method = method;
+            this.replaceKey = replaceKey;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package telegramaibot;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-flight for engine calls: concurrent requests with the same key share one upstream call.
+// The shared call runs on its own thread, so one waiter giving up (hedge lost, deadline) does not
+// fail the others; it is only cancelled once every waiter has left. The shared call has no deadline
+// of its own: it lives as long as the longest-waiting caller, and when the last one leaves because
+// its deadline passed, it ends as timed out so the engine is blamed for it.
+public class RequestCoalescer {
+
+    public interface SharedCall {
+        String call(CallScope scope) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public RequestCoalescer(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public String call(String key, CallScope waiterScope, SharedCall fn) throws Exception {
+        Flight[] created = new Flight[1];
+        Flight flight = flights.compute(key, (k, cur) -> {
+            if (cur != null && !cur.abandoned && !cur.result.isDone()) {
+                cur.waiters++;
+                return cur;
+            }
+            created[0] = new Flight();
+            return created[0];
+        });
+        if (created[0] != null) {
+            start(key, flight, fn);
+        } else {
+            coalesced.incrementAndGet();
+        }
+
+        // each waiter gets its own view so cancelling it leaves the shared result untouched
+        CompletableFuture<String> mine = flight.result.thenApply(r -> r);
+        try {
+            waiterScope.onCancel(() -> mine.cancel(false));
+            return mine.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException | CancellationException e) {
+            leave(key, flight, waiterScope.isExpired());
+            throw e;
+        }
+    }
+
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    public int inFlight() {
+        return flights.size();
+    }
+
+    private void start(String key, Flight flight, SharedCall fn) {
+        flight.task = executor.submit(() -> {
+            try {
+                flight.result.complete(fn.call(flight.scope));
+            } catch (Throwable t) {
+                flight.result.completeExceptionally(t);
+            } finally {
+                flights.remove(key, flight);
+            }
+        });
+    }
+
+    private void leave(String key, Flight flight, boolean timedOut) {
+        flights.computeIfPresent(key, (k, cur) -> {
+            if (cur != flight) return cur;
+            if (!timedOut) cur.allTimedOut = false;
+            if (--cur.waiters > 0) return cur;
+            cur.abandoned = true;
+            return null;
+        });
+        if (flight.abandoned) {
+            if (flight.allTimedOut) flight.scope.expire();
+            else flight.scope.cancel();
+            Future<?> task = flight.task;
+            if (task != null) task.cancel(true);
+        }
+    }
+
+    private static final class Flight {
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final CallScope scope = new CallScope();
+        private volatile Future<?> task;
+        // guarded by the flights map entry lock
+        private int waiters = 1;
+        // no waiter left for any reason other than its deadline
+        private boolean allTimedOut = true;
+        private volatile boolean abandoned;
+    }
+}
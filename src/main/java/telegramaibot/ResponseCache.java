@@ -0,0 +1,292 @@
+package telegramaibot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Engine answers keyed on engine + model + normalized prompt. Each entry remembers the output limit
+// it was generated with and only answers requests whose limit is no larger. The in-memory tier is
+// an LRU bounded by an estimate of retained bytes; the optional disk tier keeps entries across
+// restarts and is swept periodically: expired files go, then the oldest ones until it fits its
+// byte budget.
+public class ResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+    // rough per-entry overhead of the map node, entry object and two String headers
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int MAX_STORED_BYTES = 16 * 1024 * 1024;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Set<String> disabledEngines;
+    private final Path diskDir;
+    private final long diskMaxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+
+    public ResponseCache(BotConfigurationProperties.Cache config) {
+        this.enabled = config.isEnabled();
+        this.maxBytes = config.getMaxBytes();
+        this.ttlMillis = config.getTtlSeconds() * 1000L;
+        this.disabledEngines = new HashSet<>(config.getDisabledEngines());
+        this.diskMaxBytes = config.getDiskMaxBytes();
+        this.diskDir = enabled ? openDiskTier(config.getDiskDir()) : null;
+        if (diskDir != null) sweepDisk();
+    }
+
+    private static Path openDiskTier(String dir) {
+        if (dir == null || dir.isBlank()) return null;
+        Path path = Paths.get(dir);
+        try {
+            Files.createDirectories(path);
+            return path;
+        } catch (IOException e) {
+            log.warn("Response cache disk tier disabled: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean isCacheable(String engine) {
+        return enabled && !disabledEngines.contains(engine);
+    }
+
+    // context identifies the conversation history the prompt was asked in; empty for none
+    public static String key(String engine, String model, String prompt, String context) {
+        return engine + '\u0000' + model + '\u0000' + context + '\u0000' + normalize(prompt);
+    }
+
+    // case and whitespace differences should not produce separate entries
+    static String normalize(String prompt) {
+        StringBuilder sb = new StringBuilder(prompt.length());
+        boolean space = false;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) sb.append(' ');
+            space = false;
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    // maxTokens is the caller's output limit (0 for none): an answer generated under a smaller one
+    // may have been cut short of what the caller has room for
+    public String get(String key, int maxTokens) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (e.expiresAt > now) {
+                    if (!covers(e.maxTokens, maxTokens)) {
+                        misses.incrementAndGet();
+                        return null;
+                    }
+                    hits.incrementAndGet();
+                    return e.value;
+                }
+                remove(key);
+            }
+        }
+        if (diskDir != null) {
+            String value = readDisk(key, maxTokens, now);
+            if (value != null) {
+                hits.incrementAndGet();
+                diskHits.incrementAndGet();
+                return value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, String value, int maxTokens) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        putMemory(key, value, maxTokens, expiresAt);
+        if (diskDir != null) writeDisk(key, value, maxTokens, expiresAt);
+    }
+
+    private static boolean covers(int stored, int wanted) {
+        return stored <= 0 || (wanted > 0 && stored >= wanted);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long diskHits() {
+        return diskHits.get();
+    }
+
+    public synchronized long sizeBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void putMemory(String key, String value, int maxTokens, long expiresAt) {
+        Entry e = new Entry(value, maxTokens, expiresAt, ENTRY_OVERHEAD + 2 * (key.length() + value.length()));
+        if (e.bytes > maxBytes) return;
+        Entry old = entries.put(key, e);
+        if (old != null) bytes -= old.bytes;
+        bytes += e.bytes;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) bytes -= e.bytes;
+    }
+
+    // ---------------------------
+    // Disk tier: one file per key, named by the key's SHA-256
+    // ---------------------------
+    private String readDisk(String key, int maxTokens, long now) {
+        Path file = diskDir.resolve(fileName(key));
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long expiresAt = in.readLong();
+            int storedMaxTokens = in.readInt();
+            String storedKey = readString(in);
+            if (expiresAt <= now || !storedKey.equals(key)) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            if (!covers(storedMaxTokens, maxTokens)) return null;
+            String value = readString(in);
+            putMemory(key, value, storedMaxTokens, expiresAt);
+            return value;
+        } catch (IOException e) {
+            log.debug("Unreadable cache file {}: {}", file, e.getMessage());
+            delete(file);
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, String value, int maxTokens, long expiresAt) {
+        Path file = diskDir.resolve(fileName(key));
+        try {
+            Path tmp = Files.createTempFile(diskDir, "entry", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeLong(expiresAt);
+                out.writeInt(maxTokens);
+                writeString(out, key);
+                writeString(out, value);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("Could not write cache file {}: {}", file, e.getMessage());
+        }
+    }
+
+    // Removes expired and unreadable files, then the least recently written ones while the tier is
+    // over diskMaxBytes.
+    public void sweepDisk() {
+        if (diskDir == null) return;
+        long now = System.currentTimeMillis();
+        List<Path> kept = new ArrayList<>();
+        Map<Path, long[]> stats = new HashMap<>(); // [size, last modified]
+        long total = 0;
+        try (Stream<Path> files = Files.list(diskDir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                if (f.getFileName().toString().endsWith(".tmp")) continue;
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(f))) {
+                    if (in.readLong() > now) {
+                        long size = Files.size(f);
+                        stats.put(f, new long[]{size, Files.getLastModifiedTime(f).toMillis()});
+                        kept.add(f);
+                        total += size;
+                        continue;
+                    }
+                } catch (IOException ignored) {
+                    // unreadable files are removed below
+                }
+                delete(f);
+            }
+        } catch (IOException e) {
+            log.warn("Response cache disk sweep failed: {}", e.getMessage());
+            return;
+        }
+        if (total <= diskMaxBytes) return;
+        kept.sort(Comparator.comparingLong(f -> stats.get(f)[1]));
+        for (Path f : kept) {
+            if (total <= diskMaxBytes) break;
+            delete(f);
+            total -= stats.get(f)[0];
+        }
+    }
+
+    private static void delete(Path f) {
+        try {
+            Files.deleteIfExists(f);
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_STORED_BYTES) throw new IOException("Corrupt cache entry");
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        // output limit the answer was generated with; 0 for none
+        private final int maxTokens;
+        private final long expiresAt;
+        private final int bytes;
+
+        private Entry(String value, int maxTokens, long expiresAt, int bytes) {
+            this.value = value;
+            this.maxTokens = maxTokens;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package telegramaibot;
+
+// Where per-user bot state (menu seen, chosen engine) lives: in this process, optionally backed by
+// a log file (UserStateStore), or in a Redis-compatible server shared by every worker of a cluster
+// (RedisStateStore).
+public interface StateBackend {
+
+    // Returns true the first time a user is seen.
+    boolean markSeen(long userId);
+
+    // The engine the user picked; null for the default order.
+    String engine(long userId);
+
+    void setEngine(long userId, String engine);
+
+    int size();
+
+    void flush();
+
+    void compact();
+
+    void close();
+}
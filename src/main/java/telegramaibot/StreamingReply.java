@@ -0,0 +1,112 @@
+package telegramaibot;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+import java.util.concurrent.CompletableFuture;
+
+// A reply that grows while the engine streams tokens: a placeholder message is sent up front and
+// then edited at most once per interval. Text past Telegram's 4096 character limit continues in a
+// new message. Everything goes through the outbound queue, so the engine thread never waits on
+// Telegram; queued edits of the same message collapse into the newest one.
+public class StreamingReply {
+    static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private final OutboundSender outbound;
+    private final String chatId;
+    private final long editIntervalMillis;
+
+    private final StringBuilder text = new StringBuilder();
+    // start of the part of text shown in the current message
+    private int segmentStart;
+    private Segment current;
+    private long lastEditAt;
+
+    public StreamingReply(OutboundSender outbound, String chatId, long editIntervalMillis) {
+        this.outbound = outbound;
+        this.chatId = chatId;
+        this.editIntervalMillis = editIntervalMillis;
+    }
+
+    public void start(String placeholder) {
+        current = new Segment(send(placeholder), placeholder);
+        lastEditAt = System.currentTimeMillis();
+    }
+
+    public boolean hasContent() {
+        return text.length() > 0;
+    }
+
+    public void append(String delta) {
+        if (delta == null || delta.isEmpty()) return;
+        text.append(delta);
+        if (System.currentTimeMillis() - lastEditAt >= editIntervalMillis) flush(false);
+    }
+
+    public void finish(String suffix) {
+        text.append(suffix);
+        flush(true);
+    }
+
+    private void flush(boolean last) {
+        while (text.length() - segmentStart > MAX_MESSAGE_LENGTH) {
+            int cut = splitPoint(segmentStart, segmentStart + MAX_MESSAGE_LENGTH);
+            show(text.substring(segmentStart, cut), true);
+            segmentStart = cut;
+            String head = text.substring(segmentStart, Math.min(text.length(), segmentStart + MAX_MESSAGE_LENGTH));
+            current = new Segment(send(head), head);
+        }
+        show(text.substring(segmentStart), last);
+        lastEditAt = System.currentTimeMillis();
+    }
+
+    // prefer breaking at a newline, then a space, in the last part of the window
+    private int splitPoint(int from, int limit) {
+        int floor = from + MAX_MESSAGE_LENGTH / 2;
+        for (int i = limit; i > floor; i--) if (text.charAt(i - 1) == '\n') return i;
+        for (int i = limit; i > floor; i--) if (text.charAt(i - 1) == ' ') return i;
+        return limit;
+    }
+
+    private void show(String content, boolean last) {
+        Segment seg = current;
+        // Telegram rejects edits that do not change the text
+        if (content.isBlank() || content.equals(seg.latest)) return;
+        seg.latest = content;
+        if (seg.id.isDone() && !seg.id.isCompletedExceptionally()) {
+            edit(seg.id.join(), content);
+            return;
+        }
+        // until the placeholder is out only the final text matters; deliver it once the id is settled
+        if (seg.waiting || !last) return;
+        seg.waiting = true;
+        seg.id.whenComplete((id, err) -> {
+            if (err == null) edit(id, seg.latest);
+            else send(seg.latest);
+        });
+    }
+
+    private void edit(int messageId, String content) {
+        EditMessageText edit = new EditMessageText();
+        edit.setChatId(chatId);
+        edit.setMessageId(messageId);
+        edit.setText(content);
+        outbound.submit(chatId, "edit:" + messageId, edit);
+    }
+
+    private CompletableFuture<Integer> send(String content) {
+        return outbound.submit(chatId, new SendMessage(chatId, content)).thenApply(Message::getMessageId);
+    }
+
+    private static final class Segment {
+        private final CompletableFuture<Integer> id;
+        private volatile String latest;
+        private volatile boolean waiting;
+
+        private Segment(CompletableFuture<Integer> id, String latest) {
+            this.id = id;
+            this.latest = latest;
+        }
+    }
+}
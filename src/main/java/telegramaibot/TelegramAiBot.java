@@ -1,26 +1,38 @@
 package telegramaibot;
 
-import com.google.gson.*;
 import com.theokanning.openai.completion.chat.*;
+import com.theokanning.openai.client.OpenAiApi;
 import com.theokanning.openai.service.OpenAiService;
 import okhttp3.*;
+import okio.BufferedSource;
+import okio.ByteString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 
 import java.io.IOException;
-import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 public class TelegramAiBot extends TelegramLongPollingBot {
+    private static final Logger log = LoggerFactory.getLogger(TelegramAiBot.class);
+
+    private static final String OPENAI_MODEL = "gpt-3.5-turbo";
+    private static final String GEMINI_MODEL = "gemini-2.5-flash";
+    private static final String OPENAI_BASE_URL = "https://api.openai.com/";
+    private static final String GEMINI_BASE_URL = "https://generativelanguage.googleapis.com/";
+    private static final String HUGGINGFACE_BASE_URL = "https://api-inference.huggingface.co/";
 
     private final String botToken;
     private final String botUsername;
@@ -28,40 +40,188 @@ public class TelegramAiBot extends TelegramLongPollingBot {
     private final String geminiApiKey;
     private final String huggingFaceApiKey;
     private final String huggingFaceModel;
+    private final String huggingFaceUrl;
+    private final String openAiBaseUrl;
+    private final String geminiBaseUrl;
 
-    // per-user chosen AI (openai, gemini, huggingface)
-    private final Map<Long, String> userAiChoice = new ConcurrentHashMap<>();
-    // track users we've shown the menu to already
-    private final Set<Long> userSeen = ConcurrentHashMap.newKeySet();
-
-    private final OkHttpClient httpClient;
-    private final Gson gson;
-    private final OpenAiService openAiService;
-
-    public TelegramAiBot(String botToken,
-                         String botUsername,
-                         String openAiApiKey,
-                         String geminiApiKey,
-                         String huggingFaceApiKey,
-                         String huggingFaceModel) {
-
-        this.botToken = botToken;
-        this.botUsername = botUsername;
-        this.openAiApiKey = openAiApiKey;
-        this.geminiApiKey = geminiApiKey;
-        this.huggingFaceApiKey = huggingFaceApiKey;
-        this.huggingFaceModel = huggingFaceModel;
-
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(20, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .build();
+    // per-user chosen AI (openai, gemini, huggingface) and whether we've shown the menu already
+    private final StateBackend userState;
+    private final UpdateJournal journal;
+    private final OutboundSender outbound;
+
+    private final EngineTransport transport;
+    // built on first use, see openAiService()
+    private final Object openAiInit = new Object();
+    private volatile OpenAiApi openAiApi;
+    private volatile OpenAiService openAiService;
+    private final UpdateDispatcher dispatcher;
+    // cheap commands and callbacks; null when admission control is off
+    private final UpdateDispatcher fastDispatcher;
+    private final AdmissionControl admission;
+    private final EngineLimiter engineLimiter;
+    private final LatencyTracker latencies = new LatencyTracker();
+    private final GenerationSizer sizer;
+    private final EngineRouter router;
+    private final ResponseCache cache;
+    private final RequestCoalescer coalescer;
+    private final MicroBatcher huggingFaceBatcher;
+    private final ConversationStore memory;
+    private final ScheduledExecutorService maintenance =
+            Executors.newSingleThreadScheduledExecutor(UpdateDispatcher.namedThreads("bot-maintenance-"));
+    // runs hedged and coalesced engine calls; concurrency is already capped by engineLimiter
+    private final ExecutorService engineExecutor = Executors.newCachedThreadPool(UpdateDispatcher.namedThreads("bot-engine-"));
+    private final boolean hedged;
+    private final long hedgeDelayMillis;
+    private final double hedgePercentile;
+    private final BotConfigurationProperties.Streaming streaming;
+    private final BotMetrics metrics;
+    private final boolean traceIds;
+    private final BotConfigurationProperties.Deadline deadline;
+    // scope of the engine-bound update each user is currently being answered for
+    private final Map<Long, CallScope> activeRequests = new ConcurrentHashMap<>();
+
+    public TelegramAiBot(BotConfigurationProperties props) {
+        this(props, BotMetrics.noop());
+    }
+
+    public TelegramAiBot(BotConfigurationProperties props, BotMetrics metrics) {
+        super(botOptions(props), props.getTelegramBotToken());
+        this.metrics = metrics;
+        this.traceIds = props.getMetrics().isTraceIds();
+
+        this.botToken = props.getTelegramBotToken();
+        this.botUsername = props.getTelegramBotName();
+        this.openAiApiKey = props.getOpenaiApiKey();
+        this.geminiApiKey = props.getGeminiApiKey();
+        this.huggingFaceApiKey = props.getHuggingfaceApiKey();
+        this.huggingFaceModel = props.getHuggingfaceModel();
+        this.huggingFaceUrl = hasText(props.getHuggingfaceUrl())
+                ? props.getHuggingfaceUrl()
+                : HUGGINGFACE_BASE_URL + "models/" + huggingFaceModel;
+        this.openAiBaseUrl = hasText(props.getOpenaiBaseUrl()) ? withSlash(props.getOpenaiBaseUrl()) : OPENAI_BASE_URL;
+        this.geminiBaseUrl = hasText(props.getGeminiBaseUrl()) ? withSlash(props.getGeminiBaseUrl()) : GEMINI_BASE_URL;
 
-        this.gson = new Gson();
-        // Only initialize if key is present, so other engines can still run.
-        this.openAiService = hasText(openAiApiKey)
-                ? new OpenAiService(openAiApiKey, Duration.ofSeconds(60))
+        this.transport = new EngineTransport(props.getTransport());
+        this.deadline = props.getDeadline();
+        boolean prewarm = props.getTransport().isPrewarm();
+        if (!props.getStartup().isLazyEngines()) {
+            initEngines(prewarm);
+        } else if (prewarm) {
+            // the clients are wanted soon anyway; build them without holding up registration
+            maintenance.execute(() -> initEngines(true));
+        }
+        if (prewarm) {
+            long keepWarm = props.getTransport().getKeepWarmSeconds();
+            if (keepWarm > 0) maintenance.scheduleWithFixedDelay(transport::keepWarm, keepWarm, keepWarm, TimeUnit.SECONDS);
+        }
+
+        BotConfigurationProperties.Dispatcher d = props.getDispatcher();
+        this.dispatcher = new UpdateDispatcher(d.getWorkerThreads(), d.getMaxPendingUpdates());
+        BotConfigurationProperties.Admission a = props.getAdmission();
+        this.admission = a.isEnabled() ? new AdmissionControl(a) : null;
+        this.fastDispatcher = a.isEnabled()
+                ? new UpdateDispatcher(a.getFastThreads(), d.getMaxPendingUpdates(), "bot-fast-")
                 : null;
+        if (admission != null) maintenance.scheduleWithFixedDelay(admission::sweep, 1, 1, TimeUnit.MINUTES);
+        this.engineLimiter = new EngineLimiter(d.getEngineMaxConcurrency(), d.getEngineConcurrency());
+
+        this.router = new EngineRouter(props.getRouter());
+        // the Hugging Face model is part of its URL (or fixed by a self-hosted server), and batches share one model
+        if (props.getGeneration().getFastModels().remove("huggingface") != null) {
+            log.warn("bot.generation.fast-models.huggingface is not supported and was ignored");
+        }
+        this.sizer = new GenerationSizer(props.getGeneration(), metrics);
+        this.streaming = props.getStreaming();
+        this.cache = new ResponseCache(props.getCache());
+        this.coalescer = props.getCoalescing().isEnabled() ? new RequestCoalescer(engineExecutor) : null;
+        BotConfigurationProperties.HuggingfaceBatch batch = props.getHuggingfaceBatch();
+        // TGI's /generate takes one string as inputs and batches concurrent requests on the server
+        boolean tgi = isTgi(huggingFaceUrl);
+        if (batch.isEnabled() && tgi) log.info("Hugging Face batching off: {} is a TGI endpoint", huggingFaceUrl);
+        this.huggingFaceBatcher = batch.isEnabled() && !tgi
+                ? new MicroBatcher(batch.getMaxBatchSize(), batch.getMaxWaitMs(), engineExecutor, this::callHuggingFaceBatch)
+                : null;
+        this.memory = props.getMemory().isEnabled() ? new ConversationStore(props.getMemory()) : null;
+        this.outbound = new OutboundSender(this, props.getOutbound(), metrics);
+        this.userState = "redis".equalsIgnoreCase(props.getCluster().getStateBackend())
+                ? new RedisStateStore(props.getCluster())
+                : new UserStateStore(props.getStateFile());
+        this.journal = new UpdateJournal(props.getUpdateJournal());
+        maintenance.scheduleWithFixedDelay(() -> {
+            // an exception would cancel the schedule, and with it every later flush
+            try {
+                journal.flush();
+                userState.flush();
+                userState.compact();
+                if (outbound.sentCount() > 0 || outbound.queueDepth() > 0) {
+                    log.info("Outbound queue depth={} sent={} failed={} throttled={} sendLatencyMs={}",
+                            outbound.queueDepth(), outbound.sentCount(), outbound.failedCount(),
+                            outbound.throttledCount(), Math.round(outbound.sendLatencyMillis()));
+                }
+            } catch (RuntimeException e) {
+                log.error("State maintenance failed", e);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+        if (memory != null) maintenance.scheduleWithFixedDelay(memory::sweep, 1, 1, TimeUnit.MINUTES);
+        if (hasText(props.getCache().getDiskDir())) maintenance.scheduleWithFixedDelay(cache::sweepDisk, 1, 1, TimeUnit.MINUTES);
+
+        BotConfigurationProperties.Hedging h = props.getHedging();
+        this.hedged = "hedged".equalsIgnoreCase(h.getStrategy());
+        this.hedgeDelayMillis = h.getDelayMs();
+        this.hedgePercentile = h.getPercentile();
+
+        registerGauges();
+    }
+
+    // Builds the clients of the configured engines and optionally opens their connections.
+    private void initEngines(boolean prewarm) {
+        long start = System.nanoTime();
+        try {
+            transport.client();
+            if (hasText(openAiApiKey)) openAiService();
+            if (prewarm) {
+                if (hasText(openAiApiKey)) transport.warm(openAiBaseUrl);
+                if (hasText(geminiApiKey)) transport.warm(geminiBaseUrl);
+                if (hasText(huggingFaceApiKey)) transport.warm(huggingFaceUrl);
+            }
+            log.info("Engine clients ready in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            // the first real call retries and reports it to the user
+            log.warn("Engine client initialization failed: {}", e.getMessage());
+        }
+    }
+
+    private void registerGauges() {
+        metrics.gauge("bot.dispatcher.pending", dispatcher::pendingUpdates);
+        metrics.gauge("bot.dispatcher.active.chats", dispatcher::activeChats);
+        if (fastDispatcher != null) metrics.gauge("bot.dispatcher.fast.pending", fastDispatcher::pendingUpdates);
+        metrics.gauge("bot.outbound.queue.depth", outbound::queueDepth);
+        metrics.counterFunction("bot.outbound.throttled", "source", "telegram", outbound::throttledCount);
+        metrics.gauge("bot.engine.executor.active", ((ThreadPoolExecutor) engineExecutor)::getActiveCount);
+        for (String engine : Arrays.asList("openai", "gemini", "huggingface")) {
+            metrics.gauge("bot.engine.in.flight", "engine", engine, () -> engineLimiter.inFlight(engine));
+            metrics.gauge("bot.generation.tokens.per.second", "engine", engine, () -> sizer.tokensPerSecond(modelFor(engine)));
+        }
+        metrics.counterFunction("bot.cache.requests", "result", "hit", cache::hits);
+        metrics.counterFunction("bot.cache.requests", "result", "miss", cache::misses);
+        metrics.counterFunction("bot.cache.requests", "result", "disk.hit", cache::diskHits);
+        metrics.gauge("bot.cache.size.bytes", cache::sizeBytes);
+        if (coalescer != null) {
+            metrics.gauge("bot.coalescer.in.flight", coalescer::inFlight);
+            metrics.counterFunction("bot.coalescer.shared", "source", "engine", coalescer::coalescedCount);
+        }
+        if (memory != null) metrics.gauge("bot.memory.conversations", memory::size);
+        metrics.gauge("bot.users.known", userState::size);
+        metrics.gauge("bot.http.connections", "state", "total", transport::connections);
+        metrics.gauge("bot.http.connections", "state", "idle", transport::idleConnections);
+    }
+
+    private static DefaultBotOptions botOptions(BotConfigurationProperties props) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        // executeAsync runs on this many threads; the outbound queue pipelines sends across chats
+        options.setMaxThreads(props.getOutbound().getSendThreads());
+        if (hasText(props.getTelegramApiUrl())) options.setBaseUrl(props.getTelegramApiUrl());
+        return options;
     }
 
     @Override
@@ -70,8 +230,184 @@ public class TelegramAiBot extends TelegramLongPollingBot {
     @Override
     public String getBotUsername() { return botUsername; }
 
+    @Override
+    public void clearWebhook() throws TelegramApiRequestException {
+        super.clearWebhook();
+        journal.confirmTaken(this);
+    }
+
     @Override
     public void onUpdateReceived(Update update) {
+        metrics.updateReceived(updateType(update));
+        // re-delivered after a restart or retried by the webhook sender: answered (or dropped) already
+        if (update.getUpdateId() != null && !journal.markNew(update.getUpdateId())) {
+            metrics.updateDuplicate(updateType(update));
+            return;
+        }
+        // the update's deadline budget starts now, queueing included
+        long receivedAt = System.nanoTime();
+        long chatId = chatKey(update);
+        if (admission == null) {
+            CallScope previous = needsEngine(update) ? supersedable(update) : null;
+            // hand off so a slow engine call never stalls the polling thread; same-chat updates stay ordered
+            dispatcher.dispatch(chatId, traced(() -> handleUpdate(update, receivedAt)));
+            if (previous != null) previous.cancel();
+            return;
+        }
+        // commands answered without an engine skip the engine queue and its limits
+        if (!needsEngine(update)) {
+            fastDispatcher.dispatch(chatId, traced(() -> handleUpdate(update, receivedAt)));
+            return;
+        }
+        User from = update.getMessage().getFrom();
+        AdmissionControl.Decision decision = admission.admit(from != null ? from.getId() : chatId, chatId);
+        if (decision != AdmissionControl.Decision.ADMIT) {
+            metrics.admissionRejected(decision == AdmissionControl.Decision.USER_LIMITED ? "user_rate" : "chat_rate");
+            refuse(chatId, RATE_LIMITED);
+            return;
+        }
+        CallScope previous = supersedable(update);
+        boolean replaces = previous != null;
+        boolean queued = dispatcher.tryDispatch(chatId, traced(() -> {
+            metrics.queueWait(System.nanoTime() - receivedAt);
+            // an answer this late is worth less than the capacity it takes from fresher messages,
+            // unless an answer was already given up for it
+            if (!replaces && admission.isStale(receivedAt)) {
+                metrics.admissionRejected("shed");
+                refuse(chatId, BUSY);
+                return;
+            }
+            handleUpdate(update, receivedAt);
+        }));
+        if (!queued) {
+            metrics.admissionRejected("backlog");
+            refuse(chatId, BUSY);
+        } else if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    // A new message stops whatever is still being produced for the same user's previous one; the
+    // new message is queued behind it in the chat lane and would otherwise wait it out. The scope is
+    // looked up before the new message is queued (which may start it and register its own scope)
+    // and cancelled only once the new message is queued, so a refused message leaves it running.
+    private CallScope supersedable(Update update) {
+        if (!deadline.isCancelOnNewMessage() || update.getMessage().getFrom() == null) return null;
+        return activeRequests.get(update.getMessage().getFrom().getId());
+    }
+
+    // One scope per engine-bound update, expiring updateMs after the update arrived.
+    private CallScope openRequest(Long userId, long receivedAt) {
+        CallScope scope = deadline.isEnabled()
+                ? CallScope.withDeadline(receivedAt + TimeUnit.MILLISECONDS.toNanos(deadline.getUpdateMs()))
+                : new CallScope();
+        activeRequests.put(userId, scope);
+        return scope;
+    }
+
+    private void closeRequest(Long userId, CallScope scope) {
+        activeRequests.remove(userId, scope);
+        scope.close();
+        if (scope.isCancelled()) metrics.requestInterrupted(scope.isExpired() ? "deadline" : "superseded");
+    }
+
+    // per-attempt scope; the whole budget when attempts are not capped
+    private CallScope attemptScope(CallScope request) {
+        return request.child(deadline.isEnabled() ? deadline.getAttemptMs() : 0);
+    }
+
+    private Runnable traced(Runnable task) {
+        if (!traceIds) return task;
+        String traceId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        return () -> {
+            MDC.put("traceId", traceId);
+            try {
+                task.run();
+            } finally {
+                MDC.remove("traceId");
+            }
+        };
+    }
+
+    // mirrors the command checks in handleUpdate: only exact matches are answered without an engine
+    private static boolean needsEngine(Update update) {
+        if (!update.hasMessage() || !update.getMessage().hasText()) return false;
+        switch (update.getMessage().getText().trim().toLowerCase(Locale.ROOT)) {
+            case "/start":
+            case "/help":
+            case "/menu":
+            case "/bye":
+            case "hi":
+            case "hello":
+            case "/reset":
+            case "/chooseai":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private void refuse(long chatId, String text) {
+        if (admission.shouldNotify(chatId)) sendMessage(Long.toString(chatId), text);
+    }
+
+    private static final String TIMED_OUT =
+            "⌛ The AI services took too long to answer. Please try again, perhaps with a shorter question.";
+    private static final String BUSY = "⏳ I'm handling a lot of requests right now. Please try again in a moment.";
+    private static final String RATE_LIMITED = "⏳ You're sending messages faster than I can answer. Please wait a few seconds.";
+
+    static String updateType(Update update) {
+        if (update.hasCallbackQuery()) return "callback";
+        if (update.hasMessage()) return update.getMessage().hasText() ? "text" : "message";
+        return "other";
+    }
+
+    // bounded set of tag values: known commands by name, everything else by kind
+    private static String commandName(String lower) {
+        if (lower.equals("hi") || lower.equals("hello")) return "greeting";
+        if (!lower.startsWith("/")) return "chat";
+        String cmd = lower.split("[\\s@]", 2)[0];
+        switch (cmd) {
+            case "/start":
+            case "/help":
+            case "/menu":
+            case "/bye":
+            case "/reset":
+            case "/chooseai":
+            case "/ai":
+                return cmd.substring(1);
+            default:
+                return "unknown";
+        }
+    }
+
+    @Override
+    public void onClosing() {
+        dispatcher.shutdown();
+        if (fastDispatcher != null) fastDispatcher.shutdown();
+        outbound.shutdown();
+        engineExecutor.shutdownNow();
+        maintenance.shutdownNow();
+        transport.shutdown();
+        if (huggingFaceBatcher != null) huggingFaceBatcher.shutdown();
+        userState.close();
+        journal.close();
+        super.onClosing();
+    }
+
+    static long chatKey(Update update) {
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        if (update.hasMessage()) return update.getMessage().getChatId();
+        return 0L;
+    }
+
+    void handleUpdate(Update update) {
+        handleUpdate(update, System.nanoTime());
+    }
+
+    private void handleUpdate(Update update, long receivedAt) {
         try {
             // callback (inline button) handling
             if (update.hasCallbackQuery()) {
@@ -86,13 +422,13 @@ public class TelegramAiBot extends TelegramLongPollingBot {
             String chatId = update.getMessage().getChatId().toString();
 
             // show menu first time we see this user
-            if (!userSeen.contains(userId)) {
+            if (userState.markSeen(userId)) {
                 sendMenu(chatId);
-                userSeen.add(userId);
                 // we continue and still process user's message below
             }
 
             String lower = text.toLowerCase(Locale.ROOT);
+            metrics.command(commandName(lower));
 
             // Commands and shortcuts
             if (lower.equals("/start")) {
@@ -101,13 +437,14 @@ public class TelegramAiBot extends TelegramLongPollingBot {
             }
 
             if (lower.equals("/help") || lower.equals("/menu")) {
-                String current = userAiChoice.getOrDefault(userId, "openai");
+                String current = Objects.requireNonNullElse(userState.engine(userId), "openai");
                 String help = "📋 Available Commands:\n" +
                         "/start\n" +
                         "hi / hello\n" +
                         "/bye\n" +
                         "/help or /menu\n" +
                         "/chooseai - pick OpenAI / Gemini / HuggingFace\n" +
+                        "/reset - forget the conversation so far\n" +
                         "/ai <openai|gemini|hf> <message> - force a specific engine\n\n" +
                         "Currently selected engine: " + current.toUpperCase();
                 sendMessage(chatId, help);
@@ -124,6 +461,12 @@ public class TelegramAiBot extends TelegramLongPollingBot {
                 return;
             }
 
+            if (lower.equals("/reset")) {
+                if (memory != null) memory.clear(userId);
+                sendMessage(chatId, "🧹 Conversation cleared. The next message starts a new topic.");
+                return;
+            }
+
             if (lower.equals("/chooseai")) {
                 sendAiSelectionMenu(chatId);
                 return;
@@ -139,35 +482,100 @@ public class TelegramAiBot extends TelegramLongPollingBot {
                 String engine = parts[1].toLowerCase(Locale.ROOT);
                 String prompt = parts[2];
 
-                switch (engine) {
-                    case "openai":
-                        safeRespond(chatId, "🤖 [OpenAI] ", () -> callOpenAI(prompt));
-                        break;
-                    case "gemini":
-                        safeRespond(chatId, "✨ [Gemini] ", () -> callGemini(prompt));
-                        break;
-                    case "hf":
-                    case "huggingface":
-                        safeRespond(chatId, "🦙 [HuggingFace] ", () -> callHuggingFace(prompt));
-                        break;
-                    default:
-                        sendMessage(chatId, "Unknown engine. Use openai | gemini | hf");
+                // a forced engine gets the whole budget, there is nothing to fall back to
+                CallScope request = openRequest(userId, receivedAt);
+                EngineRequest forced = sizer.target(EngineRequest.of(prompt), userId, "ai");
+                try {
+                    switch (engine) {
+                        case "openai":
+                            safeRespond(chatId, "🤖 [OpenAI] ", request, () -> invokeEngine("openai", forced, request));
+                            break;
+                        case "gemini":
+                            safeRespond(chatId, "✨ [Gemini] ", request, () -> invokeEngine("gemini", forced, request));
+                            break;
+                        case "hf":
+                        case "huggingface":
+                            safeRespond(chatId, "🦙 [HuggingFace] ", request, () -> invokeEngine("huggingface", forced, request));
+                            break;
+                        default:
+                            sendMessage(chatId, "Unknown engine. Use openai | gemini | hf");
+                    }
+                } finally {
+                    closeRequest(userId, request);
                 }
                 return;
             }
 
             // normal conversation -> use selected engine (if any) then fallback
-            String produced = produceWithFallback(text, userId);
-            sendMessage(chatId, produced);
+            CallScope request = openRequest(userId, receivedAt);
+            try {
+                if (streaming.isEnabled()) {
+                    respondStreaming(chatId, text, userId, request);
+                    return;
+                }
+                String produced = produceWithFallback(text, userId, request);
+                // null when a newer message took over; that one gets the answer
+                if (produced != null) sendMessage(chatId, produced);
+            } finally {
+                closeRequest(userId, request);
+            }
 
         } catch (Exception ex) {
-            ex.printStackTrace();
+            log.error("Update handling failed", ex);
         }
     }
 
+    String produceWithFallback(String prompt, Long userId) {
+        return produceWithFallback(prompt, userId, new CallScope());
+    }
+
     // Attempt engines in priority order (selected first, then the rest). Return response with footer.
-    private String produceWithFallback(String prompt, Long userId) {
-        String selected = userAiChoice.get(userId); // may be null
+    // Every attempt runs inside the update's scope, so the chain as a whole ends by its deadline;
+    // null when the scope was cancelled because a newer message arrived.
+    String produceWithFallback(String prompt, Long userId, CallScope request) {
+        List<String> order = engineOrder(userId);
+        if (order.isEmpty()) return ENGINES_UNAVAILABLE;
+        EngineRequest req = newRequest(prompt, userId);
+        if (hedged) return produceHedged(req, userId, order, request);
+
+        Exception lastEx = null;
+        for (int i = 0; i < order.size() && !request.isCancelled(); i++) {
+            String engine = order.get(i);
+            if (!router.tryAcquire(engine)) continue;
+            CallScope attempt = attemptScope(request);
+            try {
+                String r = invokeEngine(engine, req, attempt);
+                if (r != null && !r.isBlank()) {
+                    metrics.fallbackDepth(i);
+                    return remember(userId, req, r) + footer(engine);
+                }
+            } catch (Exception e) {
+                lastEx = timedOut(engine, attempt, e);
+                log.warn("Engine {} failed: {}", engine, lastEx.getMessage());
+            } finally {
+                attempt.close();
+                router.release(engine);
+            }
+        }
+
+        if (request.isCancelled()) return request.isExpired() ? TIMED_OUT : null;
+        metrics.fallbackDepth(order.size());
+        return allFailed(lastEx);
+    }
+
+    private EngineRequest newRequest(String prompt, Long userId) {
+        EngineRequest req = memory != null ? new EngineRequest(prompt, memory.history(userId)) : EngineRequest.of(prompt);
+        return sizer.target(req, userId, "chat");
+    }
+
+    // Stores the exchange for the next turn and hands the answer back.
+    private String remember(Long userId, EngineRequest req, String answer) {
+        if (memory != null) memory.append(userId, req.getPrompt(), answer);
+        return answer;
+    }
+
+    private List<String> engineOrder(Long userId) {
+        String selected = userState.engine(userId); // may be null
         List<String> order;
         if (selected == null) {
             order = Arrays.asList("openai", "gemini", "huggingface");
@@ -176,173 +584,491 @@ public class TelegramAiBot extends TelegramLongPollingBot {
             order.add(selected);
             for (String s : Arrays.asList("openai", "gemini", "huggingface")) if (!s.equals(selected)) order.add(s);
         }
+        return router.route(order, selected != null);
+    }
+
+    // Streaming mode: show a placeholder right away and edit it as tokens arrive. Falls back to the
+    // next engine only while nothing has been shown yet.
+    private void respondStreaming(String chatId, String prompt, Long userId, CallScope request) {
+        List<String> order = engineOrder(userId);
+        if (order.isEmpty()) {
+            sendMessage(chatId, ENGINES_UNAVAILABLE);
+            return;
+        }
+        long interval = chatId.startsWith("-") ? streaming.getGroupEditIntervalMs() : streaming.getEditIntervalMs();
+        StreamingReply reply = new StreamingReply(outbound, chatId, interval);
+        reply.start(streaming.getPlaceholder());
+        EngineRequest req = newRequest(prompt, userId);
 
         Exception lastEx = null;
-        for (String engine : order) {
+        for (int i = 0; i < order.size() && !request.isCancelled(); i++) {
+            String engine = order.get(i);
+            if (!router.tryAcquire(engine)) continue;
+            CallScope attempt = attemptScope(request);
             try {
-                switch (engine) {
-                    case "openai": {
-                        String r = callOpenAI(prompt);
-                        if (r != null && !r.isBlank()) return r + "\n\n[🤖 Response from: OpenAI]";
-                        break;
+                String r = streamEngine(engine, req, reply, attempt);
+                if (r != null && !r.isBlank()) {
+                    metrics.fallbackDepth(i);
+                    remember(userId, req, r);
+                    reply.finish(footer(engine));
+                    return;
+                }
+            } catch (Exception e) {
+                lastEx = timedOut(engine, attempt, e);
+                log.warn("Engine {} failed: {}", engine, lastEx.getMessage());
+                if (request.isCancelled()) break;
+                if (reply.hasContent()) {
+                    reply.finish("\n\n⚠️ Response interrupted: " + lastEx.getMessage());
+                    return;
+                }
+            } finally {
+                attempt.close();
+                router.release(engine);
+            }
+        }
+        // the placeholder is already on screen, so it is always replaced with something final
+        if (request.isCancelled()) {
+            if (request.isExpired()) reply.finish(reply.hasContent() ? "\n\n⌛ Stopped: the answer took too long." : TIMED_OUT);
+            else reply.finish(reply.hasContent() ? "\n\n⏹ Stopped: you sent a newer message." : "⏹ Skipped: you sent a newer message.");
+            return;
+        }
+        metrics.fallbackDepth(order.size());
+        reply.finish(allFailed(lastEx));
+    }
+
+    private String streamEngine(String engine, EngineRequest unsized, StreamingReply reply, CallScope scope) throws Exception {
+        EngineRequest req = sizer.size(engine, modelFor(engine), unsized, scope.remainingMillis());
+        boolean cacheable = cache.isCacheable(engine);
+        String key = cacheable ? cacheKey(engine, req) : null;
+        if (cacheable) {
+            String cached = cache.get(key, req.getMaxTokens());
+            if (cached != null) {
+                reply.append(cached);
+                return cached;
+            }
+        }
+        String r = callEngineLimited(engine, req.getModel(), scope, () -> {
+            switch (engine) {
+                case "openai":
+                    return streamOpenAI(req, scope, reply::append);
+                case "gemini":
+                    return streamGemini(req, scope, reply::append);
+                default:
+                    // no incremental API for the HF Inference endpoint; show the whole answer at once
+                    String full = callHuggingFace(req, scope);
+                    reply.append(full);
+                    return full;
+            }
+        });
+        if (cacheable && storable(engine) && r != null && !r.isBlank()) cache.put(key, r, req.getMaxTokens());
+        return r;
+    }
+
+    // Hedged mode: start the preferred engine, and if it has not answered within the hedge delay
+    // race the next engine against it. A failed attempt starts the next engine immediately.
+    // The first non-blank answer wins and every other attempt is cancelled.
+    private String produceHedged(EngineRequest req, Long userId, List<String> order, CallScope request) {
+        CompletionService<String> race = new ExecutorCompletionService<>(engineExecutor);
+        Map<Future<String>, String> engines = new HashMap<>();
+        Map<Future<String>, CallScope> scopes = new HashMap<>();
+        Exception lastEx = null;
+        int next = 0;
+        try {
+            while (true) {
+                if (request.isCancelled() && !request.isExpired()) return null;
+                if (request.isCancelled() || request.remainingMillis() == 0) return TIMED_OUT;
+                if (engines.isEmpty()) {
+                    if (next >= order.size()) {
+                        metrics.fallbackDepth(order.size());
+                        return allFailed(lastEx);
                     }
-                    case "gemini": {
-                        String r = callGemini(prompt);
-                        if (r != null && !r.isBlank()) return r + "\n\n[✨ Response from: Gemini]";
-                        break;
+                    next = launch(race, order.get(next), req, engines, scopes, next, request);
+                }
+                // attempts are children of the request, so its deadline also ends this wait
+                long remaining = request.remainingMillis();
+                Future<String> done = next < order.size()
+                        ? race.poll(Math.min(hedgeDelayMillis(order.get(0)), remaining), TimeUnit.MILLISECONDS)
+                        : race.poll(remaining, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (next < order.size() && !request.isCancelled()) {
+                        next = launch(race, order.get(next), req, engines, scopes, next, request);
                     }
-                    case "huggingface": {
-                        String r = callHuggingFace(prompt);
-                        if (r != null && !r.isBlank()) return r + "\n\n[🦙 Response from: HuggingFace]";
-                        break;
+                    continue;
+                }
+                String engine = engines.remove(done);
+                CallScope attempt = scopes.remove(done);
+                try {
+                    String r = done.get();
+                    if (r != null && !r.isBlank()) {
+                        metrics.fallbackDepth(order.indexOf(engine));
+                        return remember(userId, req, r) + footer(engine);
                     }
+                } catch (ExecutionException e) {
+                    lastEx = timedOut(engine, attempt, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                    log.warn("Engine {} failed: {}", engine, lastEx.getMessage());
+                }
+                // a failure should not wait out the hedge delay before trying the next engine
+                if (engines.isEmpty() && next < order.size() && !request.isCancelled()) {
+                    next = launch(race, order.get(next), req, engines, scopes, next, request);
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return allFailed(lastEx);
+        } finally {
+            for (Map.Entry<Future<String>, CallScope> e : scopes.entrySet()) {
+                e.getValue().cancel();
+                e.getValue().close();
+                e.getKey().cancel(true);
+            }
+        }
+    }
+
+    private int launch(CompletionService<String> race, String engine, EngineRequest req,
+                       Map<Future<String>, String> engines, Map<Future<String>, CallScope> scopes, int next,
+                       CallScope request) {
+        CallScope scope = attemptScope(request);
+        Future<String> f = race.submit(() -> {
+            if (!router.tryAcquire(engine)) throw new IllegalStateException(engine + " is temporarily unavailable");
+            try {
+                return invokeEngine(engine, req, scope);
+            } finally {
+                scope.close();
+                router.release(engine);
+            }
+        });
+        engines.put(f, engine);
+        scopes.put(f, scope);
+        return next + 1;
+    }
+
+    private long hedgeDelayMillis(String preferred) {
+        if (hedgePercentile > 0) {
+            long observed = latencies.percentile(preferred, hedgePercentile);
+            if (observed > 0) return observed;
+        }
+        return hedgeDelayMillis;
+    }
+
+    private String invokeEngine(String engine, EngineRequest unsized, CallScope scope) throws Exception {
+        // sized per attempt: the time left shrinks along the fallback chain
+        EngineRequest req = sizer.size(engine, modelFor(engine), unsized, scope.remainingMillis());
+        boolean cacheable = cache.isCacheable(engine);
+        if (!cacheable && coalescer == null) return callEngineLimited(engine, req, scope);
+
+        String key = cacheKey(engine, req);
+        if (cacheable) {
+            String cached = cache.get(key, req.getMaxTokens());
+            if (cached != null) return cached;
+        }
+        boolean store = cacheable && storable(engine);
+        if (coalescer == null) return callAndCache(engine, req, scope, key, store);
+        // identical prompts in flight share one upstream call; each waiter still gets its own reply.
+        // Flights are per output limit too: an answer cut short to fit a tight deadline is never
+        // handed to a caller that has the time for a longer one.
+        String flight = key + '\u0000' + req.getMaxTokens();
+        return coalescer.call(flight, scope, shared -> callAndCache(engine, req, shared, key, store));
+    }
+
+    // the output limit is not part of the key; the cache checks it against the stored entry's
+    private static String cacheKey(String engine, EngineRequest req) {
+        return ResponseCache.key(engine, req.getModel(), req.getPrompt(), req.contextKey());
+    }
+
+    // Batched Hugging Face prompts share a limit sized for the batch, not the one in their request.
+    private boolean storable(String engine) {
+        return huggingFaceBatcher == null || !engine.equals("huggingface") || !sizer.isEnabled();
+    }
+
+    private String callAndCache(String engine, EngineRequest req, CallScope scope, String key, boolean cacheable) throws Exception {
+        String r = callEngineLimited(engine, req, scope);
+        if (cacheable && r != null && !r.isBlank()) cache.put(key, r, req.getMaxTokens());
+        return r;
+    }
+
+    private String modelFor(String engine) {
+        switch (engine) {
+            case "openai":
+                return OPENAI_MODEL;
+            case "gemini":
+                return GEMINI_MODEL;
+            default:
+                return huggingFaceModel;
+        }
+    }
+
+    private String modelFor(String engine, EngineRequest req) {
+        return req.getModel() != null ? req.getModel() : modelFor(engine);
+    }
+
+    private String callEngineLimited(String engine, EngineRequest req, CallScope scope) throws Exception {
+        return callEngineLimited(engine, req.getModel(), scope, () -> callEngine(engine, req, scope));
+    }
+
+    // the upstream call itself; package-private so benchmarks can stub the engines
+    String callEngine(String engine, EngineRequest req, CallScope scope) throws Exception {
+        switch (engine) {
+            case "openai":
+                return callOpenAI(req, scope);
+            case "gemini":
+                return callGemini(req, scope);
+            case "huggingface":
+                return callHuggingFace(req, scope);
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    // Runs one engine call under the engine's concurrency cap and feeds the outcome to the router,
+    // the generation sizer and the metrics registry.
+    private String callEngineLimited(String engine, String model, CallScope scope, Callable<String> body) throws Exception {
+        // waiting for a slot is part of the attempt's budget
+        return engineLimiter.call(engine, scope.remainingMillis(), () -> {
+            long started = System.nanoTime();
+            try {
+                String r = body.call();
+                long nanos = System.nanoTime() - started;
+                long took = TimeUnit.NANOSECONDS.toMillis(nanos);
+                latencies.record(engine, took);
+                sizer.observe(model, r, took);
+                router.recordSuccess(engine, took);
+                metrics.engineCall(engine, "success", nanos);
+                return r;
             } catch (Exception e) {
-                lastEx = e;
-                System.out.println("Engine " + engine + " failed: " + e.getMessage());
+                long nanos = System.nanoTime() - started;
+                if (scope.isExpired()) {
+                    // ran out of time: the engine was too slow, which the router should hear about
+                    router.recordFailure(engine, TimeUnit.NANOSECONDS.toMillis(nanos), e);
+                    metrics.engineCall(engine, "timeout", nanos);
+                } else if (scope.isCancelled() || Thread.currentThread().isInterrupted()) {
+                    router.recordCancelled(engine);
+                    metrics.engineCall(engine, "cancelled", nanos);
+                } else {
+                    router.recordFailure(engine, TimeUnit.NANOSECONDS.toMillis(nanos), e);
+                    metrics.engineCall(engine, "failure", nanos);
+                    metrics.engineError(engine, EngineRouter.statusOf(e));
+                }
+                throw e;
             }
+        });
+    }
+
+    private static String footer(String engine) {
+        switch (engine) {
+            case "openai":
+                return "\n\n[🤖 Response from: OpenAI]";
+            case "gemini":
+                return "\n\n[✨ Response from: Gemini]";
+            default:
+                return "\n\n[🦙 Response from: HuggingFace]";
         }
+    }
+
+    private static final String ENGINES_UNAVAILABLE =
+            "❌ All AI services are temporarily unavailable. Please try again shortly.";
 
+    // An attempt cut off by its deadline fails with whatever the aborted wait or call threw;
+    // report it as the timeout it is.
+    private static Exception timedOut(String engine, CallScope attempt, Exception e) {
+        if (!attempt.isExpired()) return e;
+        TimeoutException timeout = new TimeoutException(engine + " did not answer in time");
+        timeout.initCause(e);
+        return timeout;
+    }
+
+    private static String allFailed(Exception lastEx) {
         String msg = "❌ All AI services failed.";
         if (lastEx != null) msg += " Last error: " + lastEx.getMessage();
         return msg;
     }
 
     // safeRespond helper for /ai forced command
-    private void safeRespond(String chatId, String label, Callable<String> fn) {
+    private void safeRespond(String chatId, String label, CallScope request, Callable<String> fn) {
         try {
             String res = fn.call();
             if (res == null || res.isBlank()) res = "❌ No response from engine.";
             sendMessage(chatId, label + res);
         } catch (Exception e) {
-            sendMessage(chatId, label + "Error: " + e.getMessage());
+            if (request.isExpired()) {
+                sendMessage(chatId, label + TIMED_OUT);
+            } else if (!request.isCancelled()) {
+                sendMessage(chatId, label + "Error: " + e.getMessage());
+            }
         }
     }
 
     // ---------------------------
     // OpenAI (theokanning wrapper)
     // ---------------------------
-    private String callOpenAI(String prompt) {
-        if (!hasText(openAiApiKey) || openAiService == null) {
-            throw new IllegalStateException("OpenAI key not provided");
-        }
-        ChatCompletionRequest req = ChatCompletionRequest.builder()
-                .model("gpt-3.5-turbo")
-                .messages(Collections.singletonList(new ChatMessage("user", prompt)))
-                .maxTokens(512)
-                .build();
-        var result = openAiService.createChatCompletion(req);
+    private String callOpenAI(EngineRequest req, CallScope scope) throws Exception {
+        // the library runs the HTTP call on this thread; binding the scope lets it be cancelled
+        var result = scope.bind(() -> openAiService().createChatCompletion(openAiRequest(req)));
         if (result == null || result.getChoices() == null || result.getChoices().isEmpty()) {
             throw new RuntimeException("OpenAI returned empty result");
         }
         return result.getChoices().get(0).getMessage().getContent();
     }
 
+    // Built on the raw API rather than streamChatCompletion so the scope can cancel the call.
+    private String streamOpenAI(EngineRequest req, CallScope scope, Consumer<String> onToken) {
+        ChatCompletionRequest request = openAiRequest(req);
+        request.setStream(true);
+        retrofit2.Call<ResponseBody> call = openAiApi().createChatCompletionStream(request);
+        scope.onCancel(call::cancel);
+        StringBuilder full = new StringBuilder();
+        OpenAiService.stream(call, ChatCompletionChunk.class).blockingForEach(chunk -> {
+            if (chunk.getChoices() == null || chunk.getChoices().isEmpty()) return;
+            ChatMessage delta = chunk.getChoices().get(0).getMessage();
+            if (delta == null || delta.getContent() == null) return;
+            full.append(delta.getContent());
+            onToken.accept(delta.getContent());
+        });
+        return full.toString();
+    }
+
+    private OpenAiService openAiService() {
+        if (!hasText(openAiApiKey)) {
+            throw new IllegalStateException("OpenAI key not provided");
+        }
+        OpenAiService service = openAiService;
+        if (service == null) {
+            synchronized (openAiInit) {
+                service = openAiService;
+                if (service == null) {
+                    // The interceptor ties the library's calls to the scope of the update they answer.
+                    openAiApi = OpenAiService.defaultRetrofit(transport.withBearer(openAiApiKey).newBuilder()
+                                    .addInterceptor(CallScope.interceptor())
+                                    .build(), OpenAiService.defaultObjectMapper())
+                            .newBuilder().baseUrl(openAiBaseUrl).build()
+                            .create(OpenAiApi.class);
+                    openAiService = service = new OpenAiService(openAiApi);
+                }
+            }
+        }
+        return service;
+    }
+
+    private OpenAiApi openAiApi() {
+        openAiService();
+        return openAiApi;
+    }
+
+    private ChatCompletionRequest openAiRequest(EngineRequest req) {
+        List<ChatMessage> messages = new ArrayList<>(req.getHistory().size() + 1);
+        for (ConversationStore.Turn t : req.getHistory()) messages.add(new ChatMessage(t.getRole(), t.getText()));
+        messages.add(new ChatMessage("user", req.getPrompt()));
+        return ChatCompletionRequest.builder()
+                .model(modelFor("openai", req))
+                .messages(messages)
+                .maxTokens(req.getMaxTokens() > 0 ? req.getMaxTokens() : null)
+                .build();
+    }
+
     // ---------------------------
     // Gemini (REST call)
     // ---------------------------
-    private String callGemini(String prompt) throws IOException {
-        if (geminiApiKey == null || geminiApiKey.isBlank()) throw new IllegalStateException("Gemini key not provided");
-        String url = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent";
+    private String callGemini(EngineRequest req, CallScope scope) throws IOException {
+        Request request = geminiRequest(req, ":generateContent");
 
-        // build payload
-        JsonObject part = new JsonObject();
-        part.addProperty("text", prompt);
+        try (Response resp = scope.track(transport.client().newCall(request)).execute()) {
+            ResponseBody body = resp.body();
+            if (!resp.isSuccessful()) {
+                String raw = body != null ? body.string() : "";
+                throw new EngineHttpException("Gemini API error " + resp.code() + ": " + raw, resp.code());
+            }
+            if (body == null) throw new IOException("Empty Gemini response");
+            return EngineCodec.geminiResponseText(body.source());
+        }
+    }
 
-        JsonObject partsWrapper = new JsonObject();
-        partsWrapper.add("parts", gson.toJsonTree(Collections.singletonList(part)));
+    // streamGenerateContent with alt=sse sends one "data: {...}" event per chunk of candidates
+    private String streamGemini(EngineRequest req, CallScope scope, Consumer<String> onToken) throws IOException {
+        Request request = geminiRequest(req, ":streamGenerateContent?alt=sse");
 
-        JsonArray contents = new JsonArray();
-        contents.add(partsWrapper);
+        try (Response resp = scope.track(transport.client().newCall(request)).execute()) {
+            if (!resp.isSuccessful()) {
+                String raw = resp.body() != null ? resp.body().string() : "";
+                throw new EngineHttpException("Gemini API error " + resp.code() + ": " + raw, resp.code());
+            }
+            if (resp.body() == null) throw new IOException("Empty Gemini stream");
+            BufferedSource source = resp.body().source();
+            StringBuilder full = new StringBuilder();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data:")) continue;
+                String delta = EngineCodec.geminiStreamDelta(line.substring(5).trim());
+                if (delta == null) continue;
+                full.append(delta);
+                onToken.accept(delta);
+            }
+            return full.toString();
+        }
+    }
 
-        JsonObject payload = new JsonObject();
-        payload.add("contents", contents);
+    private Request geminiRequest(EngineRequest req, String method) throws IOException {
+        if (geminiApiKey == null || geminiApiKey.isBlank()) throw new IllegalStateException("Gemini key not provided");
+        String url = geminiBaseUrl + "v1beta/models/" + modelFor("gemini", req) + method;
 
-        RequestBody body = RequestBody.create(payload.toString(), MediaType.get("application/json; charset=utf-8"));
+        RequestBody body = RequestBody.create(EngineCodec.geminiPayload(req), EngineCodec.JSON);
 
-        Request request = new Request.Builder()
+        return new Request.Builder()
                 .url(url)
                 .post(body)
                 .addHeader("x-goog-api-key", geminiApiKey)
                 .addHeader("Content-Type", "application/json")
                 .build();
-
-        try (Response resp = httpClient.newCall(request).execute()) {
-            String raw = resp.body() != null ? resp.body().string() : "";
-            if (!resp.isSuccessful()) {
-                throw new IOException("Gemini API error " + resp.code() + ": " + raw);
-            }
-            JsonElement parsed = JsonParser.parseString(raw);
-            if (!parsed.isJsonObject()) throw new IOException("Unexpected Gemini response: " + raw);
-            JsonObject obj = parsed.getAsJsonObject();
-
-            // parse candidates -> content -> parts -> text
-            if (obj.has("candidates") && obj.get("candidates").isJsonArray()) {
-                JsonArray candidates = obj.getAsJsonArray("candidates");
-                if (candidates.size() > 0 && candidates.get(0).isJsonObject()) {
-                    JsonObject candidate = candidates.get(0).getAsJsonObject();
-                    if (candidate.has("content") && candidate.get("content").isJsonObject()) {
-                        JsonObject content = candidate.getAsJsonObject("content");
-                        if (content.has("parts") && content.get("parts").isJsonArray()) {
-                            JsonArray parts = content.getAsJsonArray("parts");
-                            if (parts.size() > 0 && parts.get(0).isJsonObject()) {
-                                JsonObject first = parts.get(0).getAsJsonObject();
-                                if (first.has("text")) return first.get("text").getAsString();
-                            }
-                        }
-                    }
-                }
-            }
-            // fallback: top-level text
-            if (obj.has("text")) return obj.get("text").getAsString();
-
-            throw new IOException("Unexpected Gemini response: " + raw);
-        }
     }
 
     // ---------------------------
     // Hugging Face (Inference API)
     // ---------------------------
-    private String callHuggingFace(String prompt) throws IOException {
+    // HF text generation takes a single input string, so only the new prompt is sent
+    private String callHuggingFace(EngineRequest req, CallScope scope) throws Exception {
         if (huggingFaceApiKey == null || huggingFaceApiKey.isBlank()) throw new IllegalStateException("Hugging Face key not provided");
+        // concurrent prompts ride along in one request when batching is on
+        if (huggingFaceBatcher != null) return huggingFaceBatcher.call(req.getPrompt(), scope);
+        return postHuggingFace(EngineCodec.huggingFacePayload(req.getPrompt(), req.getMaxTokens()), scope,
+                EngineCodec::huggingFaceResponseText);
+    }
 
-        String url = "https://api-inference.huggingface.co/models/" + huggingFaceModel;
-        JsonObject payload = new JsonObject();
-        payload.addProperty("inputs", prompt);
+    private List<String> callHuggingFaceBatch(List<String> inputs, CallScope scope) throws IOException {
+        metrics.batchSize("huggingface", inputs.size());
+        // the prompts share one limit, sized on the configured target rather than each user's
+        int maxNewTokens = sizer.batchLimit(huggingFaceModel, scope.remainingMillis());
+        // a batch of one goes out exactly like an unbatched call
+        if (inputs.size() == 1) {
+            return Collections.singletonList(postHuggingFace(EngineCodec.huggingFacePayload(inputs.get(0), maxNewTokens), scope,
+                    EngineCodec::huggingFaceResponseText));
+        }
+        return postHuggingFace(EngineCodec.huggingFaceBatchPayload(inputs, maxNewTokens), scope,
+                body -> EngineCodec.huggingFaceBatchTexts(body, inputs.size()));
+    }
 
-        RequestBody body = RequestBody.create(payload.toString(), MediaType.get("application/json; charset=utf-8"));
+    // text-generation-inference routes: /generate (and /generate_stream) on the server root
+    static boolean isTgi(String url) {
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) return false;
+        String path = parsed.encodedPath();
+        return path.endsWith("/generate") || path.endsWith("/generate_stream");
+    }
 
+    private <T> T postHuggingFace(ByteString payload, CallScope scope, EngineCodec.BodyParser<T> parser) throws IOException {
         Request request = new Request.Builder()
-                .url(url)
-                .post(body)
+                .url(huggingFaceUrl)
+                .post(RequestBody.create(payload, EngineCodec.JSON))
                 .addHeader("Authorization", "Bearer " + huggingFaceApiKey)
                 .addHeader("x-wait-for-model", "true")
                 .build();
 
-        try (Response resp = httpClient.newCall(request).execute()) {
-            String raw = resp.body() != null ? resp.body().string() : "";
-            if (!resp.isSuccessful()) throw new IOException("HuggingFace error " + resp.code() + ": " + raw);
-
-            JsonElement parsed = JsonParser.parseString(raw);
-            // HF normally returns an array of outputs
-            if (parsed.isJsonArray()) {
-                JsonArray arr = parsed.getAsJsonArray();
-                if (arr.size() > 0 && arr.get(0).isJsonObject()) {
-                    JsonObject first = arr.get(0).getAsJsonObject();
-                    if (first.has("generated_text")) return first.get("generated_text").getAsString();
-                    // try common fields
-                    for (Map.Entry<String, JsonElement> e : first.entrySet()) {
-                        if (e.getValue().isJsonPrimitive() && e.getValue().getAsJsonPrimitive().isString()) {
-                            return e.getValue().getAsString();
-                        }
-                    }
-                }
-            } else if (parsed.isJsonObject()) {
-                JsonObject obj = parsed.getAsJsonObject();
-                if (obj.has("generated_text")) return obj.get("generated_text").getAsString();
-                if (obj.has("text")) return obj.get("text").getAsString();
+        try (Response resp = scope.track(transport.client().newCall(request)).execute()) {
+            ResponseBody responseBody = resp.body();
+            if (!resp.isSuccessful()) {
+                String raw = responseBody != null ? responseBody.string() : "";
+                throw new EngineHttpException("HuggingFace error " + resp.code() + ": " + raw, resp.code());
             }
-            throw new IOException("Unexpected HuggingFace response: " + raw);
+            if (responseBody == null) throw new IOException("Empty HuggingFace response");
+            // output is read straight off the socket; nothing past the generated text is parsed
+            return parser.parse(responseBody.source());
         }
     }
 
@@ -356,6 +1082,7 @@ public class TelegramAiBot extends TelegramLongPollingBot {
                 "/bye\n" +
                 "/help or /menu\n" +
                 "/chooseai - pick OpenAI / Gemini / HuggingFace\n" +
+                "/reset - forget the conversation so far\n" +
                 "/ai <openai|gemini|hf> <message> - force a specific engine\n\n" +
                 "Tip: Use /chooseai to select an engine; default order is OpenAI → Gemini → HuggingFace.";
         sendMessage(chatId, menu);
@@ -379,11 +1106,7 @@ public class TelegramAiBot extends TelegramLongPollingBot {
 
         SendMessage m = new SendMessage(chatId, "Choose AI engine:");
         m.setReplyMarkup(markup);
-        try {
-            execute(m);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+        outbound.submit(chatId, m);
     }
 
     private void handleCallbackQuery(CallbackQuery cq) {
@@ -395,15 +1118,15 @@ public class TelegramAiBot extends TelegramLongPollingBot {
         String reply;
         switch (data) {
             case "ai_openai":
-                userAiChoice.put(userId, "openai");
+                userState.setEngine(userId, "openai");
                 reply = "✅ You selected OpenAI. Future messages will use OpenAI.";
                 break;
             case "ai_gemini":
-                userAiChoice.put(userId, "gemini");
+                userState.setEngine(userId, "gemini");
                 reply = "✅ You selected Gemini. Future messages will use Gemini.";
                 break;
             case "ai_hf":
-                userAiChoice.put(userId, "huggingface");
+                userState.setEngine(userId, "huggingface");
                 reply = "✅ You selected HuggingFace. Future messages will use HuggingFace.";
                 break;
             default:
@@ -415,24 +1138,19 @@ public class TelegramAiBot extends TelegramLongPollingBot {
         edit.setMessageId(messageId);
         edit.setText(reply);
 
-        try {
-            execute(edit);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+        outbound.submit(chatId, edit);
     }
 
-    // send message helper
+    // send message helper; delivery, rate limiting and retries happen on the outbound queue
     private void sendMessage(String chatId, String text) {
-        SendMessage m = new SendMessage(chatId, text);
-        try {
-            execute(m);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+        outbound.submit(chatId, new SendMessage(chatId, text));
+    }
+
+    private static String withSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
     }
 
-    private boolean hasText(String value) {
+    private static boolean hasText(String value) {
         return value != null && !value.trim().isEmpty();
     }
 }
@@ -3,9 +3,11 @@ package telegramaibot;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
 @EnableConfigurationProperties(BotConfigurationProperties.class)
+@ImportRuntimeHints(BotRuntimeHints.class)
 public class TelegramAiBotApplication {
     public static void main(String[] args) {
         SpringApplication.run(TelegramAiBotApplication.class, args);
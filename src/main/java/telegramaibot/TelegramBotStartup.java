@@ -1,19 +1,29 @@
 package telegramaibot;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.generics.BotSession;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
 @Component
-public class TelegramBotStartup implements CommandLineRunner {
+public class TelegramBotStartup implements CommandLineRunner, DisposableBean {
     private static final Logger log = LoggerFactory.getLogger(TelegramBotStartup.class);
     private final BotConfigurationProperties botProperties;
+    private final BotMetrics metrics;
+    private TelegramLongPollingBot bot;
+    private WebhookServer webhookServer;
+    private BotSession session;
 
-    public TelegramBotStartup(BotConfigurationProperties botProperties) {
+    public TelegramBotStartup(BotConfigurationProperties botProperties, MeterRegistry meterRegistry) {
         this.botProperties = botProperties;
+        this.metrics = new BotMetrics(meterRegistry);
     }
 
     @Override
@@ -24,28 +34,57 @@ public class TelegramBotStartup implements CommandLineRunner {
         }
 
         try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new TelegramAiBot(
-                    botProperties.getTelegramBotToken(),
-                    botProperties.getTelegramBotName(),
-                    botProperties.getOpenaiApiKey(),
-                    botProperties.getGeminiApiKey(),
-                    botProperties.getHuggingfaceApiKey(),
-                    botProperties.getHuggingfaceModel()
-            ));
+            // a cluster ingress only forwards updates; the workers run the bot itself
+            bot = isIngress() ? new ClusterIngress(botProperties, metrics) : new TelegramAiBot(botProperties, metrics);
+            if ("webhook".equalsIgnoreCase(botProperties.getIngestionMode())) {
+                startWebhook(bot);
+            } else {
+                TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                session = botsApi.registerBot(bot);
+            }
             log.info("Bot started successfully.");
         } catch (Exception ex) {
             log.error("Bot registration failed: {}", ex.getMessage());
         }
     }
 
+    private void startWebhook(TelegramLongPollingBot bot) throws Exception {
+        BotConfigurationProperties.Webhook config = botProperties.getWebhook();
+        webhookServer = new WebhookServer(config, bot::onUpdateReceived);
+        webhookServer.start();
+        metrics.gauge("bot.webhook.queue.depth", webhookServer::queueDepth);
+        if (hasText(config.getPublicUrl())) {
+            SetWebhook setWebhook = new SetWebhook(config.getPublicUrl());
+            setWebhook.setMaxConnections(config.getMaxConnections());
+            if (hasText(config.getSecretToken())) setWebhook.setSecretToken(config.getSecretToken());
+            bot.execute(setWebhook);
+            log.info("Webhook registered at {}", config.getPublicUrl());
+        }
+    }
+
+    // Either way the bot's onClosing runs, which flushes and closes the update journal and user state.
+    @Override
+    public void destroy() {
+        if (session != null && session.isRunning()) {
+            // stops polling, then calls onClosing itself
+            session.stop();
+            return;
+        }
+        if (webhookServer != null) webhookServer.stop();
+        if (bot != null) bot.onClosing();
+    }
+
     private boolean canStartBot() {
         boolean hasToken = hasText(botProperties.getTelegramBotToken());
         boolean hasName = hasText(botProperties.getTelegramBotName());
         boolean hasOpenAi = hasText(botProperties.getOpenaiApiKey());
         boolean hasGemini = hasText(botProperties.getGeminiApiKey());
         boolean hasHuggingFace = hasText(botProperties.getHuggingfaceApiKey());
-        return hasToken && hasName && (hasOpenAi || hasGemini || hasHuggingFace);
+        return hasToken && hasName && (isIngress() || hasOpenAi || hasGemini || hasHuggingFace);
+    }
+
+    private boolean isIngress() {
+        return !botProperties.getCluster().getWorkers().isEmpty();
     }
 
     private static boolean hasText(String value) {
@@ -0,0 +1,36 @@
+package telegramaibot;
+
+// Classic token bucket: refills continuously at ratePerSecond up to capacity.
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized boolean tryConsume() {
+        refill();
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    // Nanoseconds until one token is available; 0 when one is available now.
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        if (tokens >= 1) return 0;
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,135 @@
+package telegramaibot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs update handlers off the polling thread. Work for the same chat runs strictly in
+// arrival order, while different chats are spread across the worker pool in parallel.
+public class UpdateDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    private final ExecutorService workers;
+    private final Map<Long, ChatLane> lanes = new ConcurrentHashMap<>();
+    // caps updates accepted but not yet finished; the caller blocks when it is exhausted
+    private final Semaphore pendingPermits;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public UpdateDispatcher(int workerThreads, int maxPendingUpdates) {
+        this(workerThreads, maxPendingUpdates, "bot-worker-");
+    }
+
+    public UpdateDispatcher(int workerThreads, int maxPendingUpdates, String threadPrefix) {
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), namedThreads(threadPrefix));
+        ((ThreadPoolExecutor) workers).allowCoreThreadTimeOut(true);
+        this.pendingPermits = new Semaphore(maxPendingUpdates);
+    }
+
+    public void dispatch(long chatId, Runnable task) {
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting to dispatch update for chat {}", chatId);
+            return;
+        }
+        enqueue(chatId, task);
+    }
+
+    // Like dispatch, but refuses instead of blocking when the backlog is full.
+    public boolean tryDispatch(long chatId, Runnable task) {
+        if (!pendingPermits.tryAcquire()) return false;
+        enqueue(chatId, task);
+        return true;
+    }
+
+    private void enqueue(long chatId, Runnable task) {
+        pending.incrementAndGet();
+        lanes.compute(chatId, (id, lane) -> {
+            if (lane == null) lane = new ChatLane(id);
+            lane.tasks.add(task);
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                workers.execute(lane);
+            }
+            return lane;
+        });
+    }
+
+    public int pendingUpdates() {
+        return pending.get();
+    }
+
+    public int activeChats() {
+        return lanes.size();
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Runnable next(ChatLane lane) {
+        Runnable[] holder = new Runnable[1];
+        // remove the lane atomically once it drains so an idle chat costs nothing
+        lanes.compute(lane.chatId, (id, current) -> {
+            holder[0] = lane.tasks.poll();
+            if (holder[0] != null) return current;
+            lane.scheduled = false;
+            return null;
+        });
+        return holder[0];
+    }
+
+    private final class ChatLane implements Runnable {
+        private final long chatId;
+        // guarded by the lanes map entry lock
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+
+        private ChatLane(long chatId) {
+            this.chatId = chatId;
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = next(this)) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Update handler failed for chat {}", chatId, e);
+                } finally {
+                    pending.decrementAndGet();
+                    pendingPermits.release();
+                }
+            }
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
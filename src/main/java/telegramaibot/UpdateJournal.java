@@ -0,0 +1,175 @@
+package telegramaibot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Remembers which update ids were already taken on, so an update re-delivered after a restart or
+// retried by the webhook sender is not answered (and paid for) twice.
+// Telegram numbers updates sequentially, so a sliding window of the last WINDOW ids is kept as a
+// bitset: bit (id mod WINDOW) is set once the id is seen. The file is the window itself, memory
+// mapped: an 8 byte magic, the highest id seen, when it was seen, then the bitset. Marking an id is a store into the
+// page cache, which survives a crash of the process; flush() forces it to disk.
+// Updates are recorded when they arrive, not when they are answered: one interrupted by a crash
+// is dropped rather than processed twice.
+public class UpdateJournal {
+    private static final Logger log = LoggerFactory.getLogger(UpdateJournal.class);
+
+    private static final long MAGIC = 0x5447555044544a31L; // "TGUPDTJ1"
+    static final int WINDOW = 1 << 16;
+    private static final int HIGHEST = 8;
+    private static final int HIGHEST_AT = 16;
+    private static final int BITS = 24;
+    // how long Telegram keeps undelivered updates
+    private static final long RETENTION_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int SIZE = BITS + WINDOW / 8;
+
+    private final Path file;
+    private ByteBuffer journal;
+    private FileChannel channel;
+    // highest id seen, 0 before the first one
+    private long highest;
+
+    public UpdateJournal(String file) {
+        this.file = file == null || file.isBlank() ? null : Paths.get(file);
+        if (this.file != null) open();
+        if (journal == null) journal = ByteBuffer.allocate(SIZE).putLong(0, MAGIC);
+        highest = journal.getLong(HIGHEST);
+    }
+
+    // Records the id and returns true the first time it is seen. Ids far outside the window are
+    // taken as new: Telegram drops undelivered updates after a day, and restarts its numbering at
+    // random after a week without updates.
+    public synchronized boolean markNew(long updateId) {
+        if (updateId > highest) {
+            advanceTo(updateId);
+            return true;
+        }
+        if (updateId <= highest - WINDOW) {
+            reset(updateId);
+            return true;
+        }
+        if (isSet(updateId)) return false;
+        set(updateId);
+        return true;
+    }
+
+    // Highest update id taken on so far; 0 if none.
+    public synchronized long lastUpdateId() {
+        return highest;
+    }
+
+    // Offset to confirm to Telegram at startup, or 0 when the journal is too old to say anything
+    // about the updates Telegram still holds (it may have renumbered them since).
+    public synchronized long resumeOffset() {
+        if (highest == 0) return 0;
+        long age = System.currentTimeMillis() - journal.getLong(HIGHEST_AT);
+        return age >= 0 && age < RETENTION_MILLIS ? highest + 1 : 0;
+    }
+
+    // A new polling session starts from offset 0, so Telegram would re-send every update it holds
+    // that was never confirmed. Confirming up to the journal first keeps those from being fetched.
+    public void confirmTaken(AbsSender sender) {
+        long offset = resumeOffset();
+        if (offset <= 0 || offset > Integer.MAX_VALUE) return;
+        GetUpdates confirm = new GetUpdates();
+        confirm.setOffset((int) offset);
+        confirm.setLimit(1);
+        confirm.setTimeout(0);
+        try {
+            sender.execute(confirm);
+            log.info("Resuming after update {}", offset - 1);
+        } catch (TelegramApiException e) {
+            log.warn("Could not confirm updates before {}: {}", offset, e.getMessage());
+        }
+    }
+
+    public synchronized void flush() {
+        if (journal instanceof MappedByteBuffer) ((MappedByteBuffer) journal).force();
+    }
+
+    public synchronized void close() {
+        if (channel == null) return;
+        flush();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        channel = null;
+    }
+
+    // Clears the bits of the ids skipped between the old and the new highest id, then sets the new one.
+    private void advanceTo(long updateId) {
+        if (highest == 0 || updateId - highest >= WINDOW) {
+            clearBits();
+        } else {
+            for (long id = highest + 1; id < updateId; id++) clear(id);
+        }
+        set(updateId);
+        highest = updateId;
+        journal.putLong(HIGHEST, highest).putLong(HIGHEST_AT, System.currentTimeMillis());
+    }
+
+    private void reset(long updateId) {
+        clearBits();
+        set(updateId);
+        highest = updateId;
+        journal.putLong(HIGHEST, highest).putLong(HIGHEST_AT, System.currentTimeMillis());
+    }
+
+    private void clearBits() {
+        for (int i = BITS; i < SIZE; i += 8) journal.putLong(i, 0L);
+    }
+
+    private boolean isSet(long id) {
+        return (journal.get(index(id)) & mask(id)) != 0;
+    }
+
+    private void set(long id) {
+        int i = index(id);
+        journal.put(i, (byte) (journal.get(i) | mask(id)));
+    }
+
+    private void clear(long id) {
+        int i = index(id);
+        journal.put(i, (byte) (journal.get(i) & ~mask(id)));
+    }
+
+    private static int index(long id) {
+        return BITS + (int) (Math.floorMod(id, (long) WINDOW) >>> 3);
+    }
+
+    private static int mask(long id) {
+        return 1 << (int) (id & 7);
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean fresh = channel.size() == 0;
+            if (!fresh && channel.size() != SIZE) throw new IOException("not an update journal");
+            // mapping a new file extends it to SIZE zero bytes
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            if (fresh) map.putLong(0, MAGIC);
+            else if (map.getLong(0) != MAGIC) throw new IOException("not an update journal");
+            journal = map;
+            log.info("Update journal {} resumes after update {}", file, map.getLong(HIGHEST));
+        } catch (IOException e) {
+            log.error("Update journal {} unavailable, duplicates are only caught until restart: {}", file, e.getMessage());
+            close();
+        }
+    }
+}
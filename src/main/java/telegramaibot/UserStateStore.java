@@ -0,0 +1,231 @@
+package telegramaibot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Per-user bot state (menu shown, chosen engine) packed into one byte per user, held in a
+// long-keyed open-addressing table. Every change is appended to a log file as a 9 byte record
+// (user id, state); on startup the log is memory-mapped and replayed, and compact() rewrites it
+// as a snapshot once it has grown well past the live entry count.
+public class UserStateStore implements StateBackend {
+    private static final Logger log = LoggerFactory.getLogger(UserStateStore.class);
+
+    static final String[] ENGINES = {null, "openai", "gemini", "huggingface"};
+    private static final int ENGINE_MASK = 0x03;
+    private static final int SEEN = 0x80;
+
+    private static final long MAGIC = 0x5447555354415431L; // "TGUSTAT1"
+    private static final int HEADER = 8;
+    private static final int RECORD = 9;
+    private static final long EMPTY = 0L; // Telegram never assigns user id 0
+
+    private long[] keys;
+    private byte[] values;
+    private int size;
+
+    private final Path file;
+    private FileChannel channel;
+    private long records;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD);
+
+    public UserStateStore(String file) {
+        this.file = file == null || file.isBlank() ? null : Paths.get(file);
+        this.keys = new long[1024];
+        this.values = new byte[1024];
+        if (this.file != null) open();
+    }
+
+    // Returns true the first time a user is seen.
+    @Override
+    public synchronized boolean markSeen(long userId) {
+        int state = get(userId);
+        if ((state & SEEN) != 0) return false;
+        update(userId, state | SEEN);
+        return true;
+    }
+
+    @Override
+    public synchronized String engine(long userId) {
+        return ENGINES[get(userId) & ENGINE_MASK];
+    }
+
+    @Override
+    public synchronized void setEngine(long userId, String engine) {
+        int ordinal = ordinal(engine);
+        int state = get(userId);
+        if ((state & ENGINE_MASK) == ordinal) return;
+        update(userId, (state & ~ENGINE_MASK) | ordinal);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    // Rewrites the log as one record per user when it holds more than twice that many records.
+    // Nothing to do once the log could not be opened: state is then kept in memory only.
+    @Override
+    public synchronized void compact() {
+        if (file == null || channel == null || records <= 2L * size + 1024) return;
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER + RECORD * 4096);
+            buf.putLong(MAGIC);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == EMPTY) continue;
+                if (buf.remaining() < RECORD) {
+                    buf.flip();
+                    while (buf.hasRemaining()) out.write(buf);
+                    buf.clear();
+                }
+                buf.putLong(keys[i]).put(values[i]);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+            out.force(true);
+        } catch (IOException e) {
+            log.warn("User state compaction failed: {}", e.getMessage());
+            return;
+        }
+        try {
+            channel.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            records = size;
+        } catch (IOException e) {
+            log.error("Could not reopen user state log {}: {}", file, e.getMessage());
+            channel = null;
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (channel == null) return;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            log.warn("User state flush failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) return;
+        flush();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        channel = null;
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            long started = System.nanoTime();
+            if (Files.exists(file) && Files.size(file) >= HEADER) replay();
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).putLong(MAGIC);
+                header.flip();
+                channel.write(header);
+            }
+            log.info("Loaded {} users from {} in {} ms", size, file,
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException e) {
+            log.error("User state log {} unavailable, state will not persist: {}", file, e.getMessage());
+            channel = null;
+        }
+    }
+
+    private void replay() throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = in.size();
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getLong() != MAGIC) throw new IOException("not a user state log");
+            // a torn final record from a crash is ignored
+            long complete = (length - HEADER) / RECORD;
+            for (long i = 0; i < complete; i++) {
+                long userId = map.getLong();
+                byte state = map.get();
+                put(userId, state);
+            }
+            records = complete;
+        }
+        if (Files.size(file) != HEADER + records * RECORD) {
+            try (FileChannel trim = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                trim.truncate(HEADER + records * RECORD);
+            }
+        }
+    }
+
+    private void update(long userId, int state) {
+        put(userId, (byte) state);
+        if (channel == null) return;
+        recordBuffer.clear();
+        recordBuffer.putLong(userId).put((byte) state).flip();
+        try {
+            while (recordBuffer.hasRemaining()) channel.write(recordBuffer);
+            records++;
+        } catch (IOException e) {
+            log.warn("Could not persist state for user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private static int ordinal(String engine) {
+        for (int i = 1; i < ENGINES.length; i++) if (ENGINES[i].equals(engine)) return i;
+        throw new IllegalArgumentException("Unknown engine " + engine);
+    }
+
+    // ---------------------------
+    // open addressing, linear probing
+    // ---------------------------
+    private int get(long userId) {
+        int mask = keys.length - 1;
+        for (int i = slot(userId, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == userId) return values[i] & 0xFF;
+            if (keys[i] == EMPTY) return 0;
+        }
+    }
+
+    private void put(long userId, byte state) {
+        if (userId == EMPTY) return;
+        int mask = keys.length - 1;
+        int i = slot(userId, mask);
+        while (keys[i] != EMPTY && keys[i] != userId) i = (i + 1) & mask;
+        if (keys[i] == EMPTY) {
+            keys[i] = userId;
+            size++;
+        }
+        values[i] = state;
+        if (size * 4 >= keys.length * 3) grow();
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        byte[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new byte[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int slot(long userId, int mask) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,147 @@
+package telegramaibot;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Embedded endpoint for Telegram's webhook delivery. The HTTP handler only copies the body into a
+// bounded queue and answers 200 straight away; intake threads parse and hand updates to the bot.
+// A full queue answers 503 so Telegram backs off and redelivers later.
+public class WebhookServer {
+    private static final Logger log = LoggerFactory.getLogger(WebhookServer.class);
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    private final BotConfigurationProperties.Webhook config;
+    private final Consumer<Update> handler;
+    private final BlockingQueue<byte[]> intake;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private HttpServer server;
+    private ExecutorService httpThreads;
+    private ExecutorService intakeThreads;
+    private volatile boolean running;
+
+    public WebhookServer(BotConfigurationProperties.Webhook config, Consumer<Update> handler) {
+        this.config = config;
+        this.handler = handler;
+        this.intake = new ArrayBlockingQueue<>(config.getQueueCapacity());
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(config.getHost(), config.getPort()), config.getBacklog());
+        server.createContext(config.getPath(), this::receive);
+        httpThreads = Executors.newFixedThreadPool(config.getHttpThreads(), UpdateDispatcher.namedThreads("webhook-http-"));
+        server.setExecutor(httpThreads);
+        running = true;
+        intakeThreads = Executors.newFixedThreadPool(config.getIntakeThreads(), UpdateDispatcher.namedThreads("webhook-intake-"));
+        for (int i = 0; i < config.getIntakeThreads(); i++) intakeThreads.execute(this::drain);
+        server.start();
+        log.info("Webhook listening on {}:{}{}", config.getHost(), getPort(), config.getPath());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int queueDepth() {
+        return intake.size();
+    }
+
+    public void stop() {
+        running = false;
+        if (server != null) server.stop(1);
+        if (httpThreads != null) httpThreads.shutdown();
+        if (intakeThreads != null) {
+            intakeThreads.shutdown();
+            try {
+                if (!intakeThreads.awaitTermination(5, TimeUnit.SECONDS)) intakeThreads.shutdownNow();
+            } catch (InterruptedException e) {
+                intakeThreads.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void receive(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String secret = config.getSecretToken();
+            if (secret != null && !secret.isBlank()
+                    && !secret.equals(exchange.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                reject(exchange, 401);
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                reject(exchange, 413);
+                return;
+            }
+            // never block the HTTP thread: a full queue is pushed back to Telegram
+            exchange.sendResponseHeaders(intake.offer(body) ? 200 : 503, -1);
+        }
+    }
+
+    // The body is left (partly) unread, so the connection cannot carry another request; say so, or
+    // the sender reuses it and its next request is reset.
+    private static void reject(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    // null when the body is too large. Up to another MAX_BODY_BYTES of it are read and dropped first:
+    // closing with unread data resets the connection before the sender sees the 413.
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length <= MAX_BODY_BYTES) return body;
+        // read, not skip: the exchange's body stream passes skip() to the socket past the body's end
+        byte[] scratch = new byte[8192];
+        int left = MAX_BODY_BYTES;
+        int n;
+        while (left > 0 && (n = in.read(scratch, 0, Math.min(scratch.length, left))) > 0) left -= n;
+        return null;
+    }
+
+    private void drain() {
+        while (running || !intake.isEmpty()) {
+            byte[] body;
+            try {
+                body = intake.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (body == null) continue;
+            Update update;
+            try {
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                log.warn("Dropping unreadable webhook update: {}", e.getMessage());
+                continue;
+            }
+            try {
+                handler.accept(update);
+            } catch (Exception e) {
+                log.error("Webhook update {} failed", update.getUpdateId(), e);
+            }
+        }
+    }
+}
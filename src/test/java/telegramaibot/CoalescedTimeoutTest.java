@@ -0,0 +1,78 @@
+package telegramaibot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A shared (coalesced) call abandoned because every waiter ran out of time is a timeout of the
+// engine, so a hung provider still opens its breaker.
+class CoalescedTimeoutTest {
+    private HangingBot bot;
+
+    @BeforeEach
+    void setUp() {
+        BotConfigurationProperties props = new BotConfigurationProperties();
+        props.setTelegramBotToken("0:test");
+        props.setTelegramBotName("test_bot");
+        props.getMemory().setEnabled(false);
+        props.getCoalescing().setEnabled(true);
+        props.getRouter().setAdaptiveOrder(false);
+        props.getRouter().setFailureThreshold(2);
+        props.getDeadline().setAttemptMs(300);
+        bot = new HangingBot(props);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bot.onClosing();
+    }
+
+    @Test
+    void hungEngineOpensTheBreaker() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(bot.produceWithFallback("question " + i, 1L).contains("Gemini"));
+            // the abandoned call reports its timeout from its own thread
+            Thread.sleep(100);
+        }
+        assertEquals(2, bot.openAiCalls.get());
+    }
+
+    @Test
+    void sharedScopeExpiresWhenEveryWaiterTimedOut() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(Executors.newCachedThreadPool());
+        CallScope[] shared = new CallScope[1];
+        CallScope waiter = CallScope.withDeadline(System.nanoTime() + 100_000_000L);
+        try {
+            coalescer.call("key", waiter, scope -> {
+                shared[0] = scope;
+                Thread.sleep(10_000);
+                return "late";
+            });
+        } catch (Exception expected) {
+            // the waiter's deadline passed
+        }
+        assertTrue(shared[0].isExpired());
+    }
+
+    static final class HangingBot extends TelegramAiBot {
+        final AtomicInteger openAiCalls = new AtomicInteger();
+
+        HangingBot(BotConfigurationProperties props) {
+            super(props, BotMetrics.noop());
+        }
+
+        @Override
+        String callEngine(String engine, EngineRequest req, CallScope scope) throws Exception {
+            if (!engine.equals("openai")) return engine + " answer";
+            openAiCalls.incrementAndGet();
+            Thread.sleep(10_000);
+            return "openai answer";
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package telegramaibot;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EngineCodecTest {
+
+    @Test
+    void sizedGeminiPayloadTurnsThinkingOff() throws IOException {
+        String sized = EngineCodec.geminiPayload(EngineRequest.of("hi").withLimits(256, "gemini-2.5-flash")).utf8();
+        assertTrue(sized.contains("\"maxOutputTokens\":256"));
+        assertTrue(sized.contains("\"thinkingConfig\":{\"thinkingBudget\":0}"));
+
+        String unsized = EngineCodec.geminiPayload(EngineRequest.of("hi")).utf8();
+        assertFalse(unsized.contains("generationConfig"));
+    }
+
+    @Test
+    void geminiCandidateCutOffBeforeAnyTextIsEmpty() throws IOException {
+        String json = "{\"candidates\":[{\"content\":{\"role\":\"model\"},\"finishReason\":\"MAX_TOKENS\",\"index\":0}]}";
+        assertEquals("", EngineCodec.geminiResponseText(body(json)));
+    }
+
+    @Test
+    void geminiCandidateText() throws IOException {
+        String json = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"hello\"}],\"role\":\"model\"},"
+                + "\"finishReason\":\"STOP\"}]}";
+        assertEquals("hello", EngineCodec.geminiResponseText(body(json)));
+    }
+
+    @Test
+    void geminiCandidateWithoutTextOtherwiseFails() {
+        String json = "{\"candidates\":[{\"finishReason\":\"SAFETY\"}]}";
+        assertThrows(IOException.class, () -> EngineCodec.geminiResponseText(body(json)));
+    }
+
+    private static Buffer body(String json) {
+        return new Buffer().writeUtf8(json);
+    }
+}
@@ -0,0 +1,89 @@
+package telegramaibot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// An attempt that takes the half-open probe must give it back even when it never reaches the
+// engine, or the engine is skipped until restart.
+class EngineProbeTest {
+    private static final long OPEN_MS = 100;
+
+    private StubBot bot;
+
+    @BeforeEach
+    void setUp() {
+        BotConfigurationProperties props = new BotConfigurationProperties();
+        props.setTelegramBotToken("0:test");
+        props.setTelegramBotName("test_bot");
+        props.getMemory().setEnabled(false);
+        props.getRouter().setAdaptiveOrder(false);
+        props.getRouter().setFailureThreshold(1);
+        props.getRouter().setOpenMs(OPEN_MS);
+        bot = new StubBot(props);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bot.onClosing();
+    }
+
+    @Test
+    void probeAnsweredFromCacheIsReleased() throws InterruptedException {
+        assertTrue(bot.produceWithFallback("cached question", 1L).contains("OpenAI"));
+        bot.failing.set(true);
+        assertTrue(bot.produceWithFallback("breaks openai", 1L).contains("Gemini"));
+        bot.failing.set(false);
+        Thread.sleep(OPEN_MS + 50);
+
+        // takes the probe, but the answer comes from the cache
+        assertTrue(bot.produceWithFallback("cached question", 1L).contains("OpenAI"));
+        assertEquals(2, bot.openAiCalls.get());
+
+        assertTrue(bot.produceWithFallback("fresh question", 1L).contains("OpenAI"));
+        assertEquals(3, bot.openAiCalls.get());
+    }
+
+    @Test
+    void releaseOnlyFreesTheCallersProbe() throws InterruptedException {
+        BotConfigurationProperties.Router config = new BotConfigurationProperties.Router();
+        config.setFailureThreshold(1);
+        config.setOpenMs(OPEN_MS);
+        EngineRouter router = new EngineRouter(config);
+        assertTrue(router.tryAcquire("openai"));
+        router.recordFailure("openai", 10, new RuntimeException("down"));
+        Thread.sleep(OPEN_MS + 50);
+
+        Thread prober = new Thread(() -> router.tryAcquire("openai"));
+        prober.start();
+        prober.join();
+        // an attempt started before the breaker opened ends now; the probe is not its to free
+        router.release("openai");
+        assertEquals(EngineRouter.State.HALF_OPEN, router.state("openai"));
+        assertFalse(router.tryAcquire("openai"));
+    }
+
+    static final class StubBot extends TelegramAiBot {
+        final AtomicBoolean failing = new AtomicBoolean();
+        final AtomicInteger openAiCalls = new AtomicInteger();
+
+        StubBot(BotConfigurationProperties props) {
+            super(props, BotMetrics.noop());
+        }
+
+        @Override
+        String callEngine(String engine, EngineRequest req, CallScope scope) throws Exception {
+            if (!engine.equals("openai")) return engine + " answer";
+            openAiCalls.incrementAndGet();
+            if (failing.get()) throw new EngineHttpException("OpenAI error 503", 503);
+            return "openai answer";
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package telegramaibot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+
+    @Test
+    void sweepKeepsDiskTierWithinBudget(@TempDir Path dir) throws IOException {
+        BotConfigurationProperties.Cache config = new BotConfigurationProperties.Cache();
+        config.setDiskDir(dir.toString());
+        config.setDiskMaxBytes(4096);
+        ResponseCache cache = new ResponseCache(config);
+        String answer = "x".repeat(1000);
+        for (int i = 0; i < 20; i++) cache.put(ResponseCache.key("openai", "m", "prompt " + i, ""), answer, 256);
+        assertEquals(20, fileCount(dir));
+
+        cache.sweepDisk();
+        assertTrue(diskBytes(dir) <= 4096);
+        assertTrue(fileCount(dir) > 0);
+    }
+
+    @Test
+    void sweepRemovesExpiredFiles(@TempDir Path dir) throws IOException {
+        BotConfigurationProperties.Cache config = new BotConfigurationProperties.Cache();
+        config.setDiskDir(dir.toString());
+        config.setTtlSeconds(0);
+        ResponseCache cache = new ResponseCache(config);
+        cache.put(ResponseCache.key("openai", "m", "prompt", ""), "answer", 256);
+
+        cache.sweepDisk();
+        assertEquals(0, fileCount(dir));
+    }
+
+    @Test
+    void entryAnswersOnlyRequestsWithinItsLimit(@TempDir Path dir) {
+        BotConfigurationProperties.Cache config = new BotConfigurationProperties.Cache();
+        config.setDiskDir(dir.toString());
+        String key = ResponseCache.key("openai", "m", "prompt", "");
+        new ResponseCache(config).put(key, "answer", 256);
+
+        // a fresh instance reads the disk tier
+        ResponseCache cache = new ResponseCache(config);
+        assertNull(cache.get(key, 512));
+        assertEquals("answer", cache.get(key, 128));
+        assertEquals("answer", cache.get(key, 256));
+        assertNull(cache.get(key, 0));
+
+        cache.put(key, "unbounded answer", 0);
+        assertEquals("unbounded answer", cache.get(key, 512));
+    }
+
+    private static long fileCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static long diskBytes(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+}
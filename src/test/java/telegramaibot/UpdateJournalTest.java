@@ -0,0 +1,78 @@
+package telegramaibot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateJournalTest {
+    private static final int WINDOW = UpdateJournal.WINDOW;
+
+    @Test
+    void detectsDuplicates() {
+        UpdateJournal journal = new UpdateJournal("");
+        assertTrue(journal.markNew(100));
+        assertFalse(journal.markNew(100));
+        // an older id arriving late is new once, then a duplicate
+        assertTrue(journal.markNew(98));
+        assertFalse(journal.markNew(98));
+        assertTrue(journal.markNew(101));
+        assertEquals(101, journal.lastUpdateId());
+    }
+
+    @Test
+    void advancingClearsTheSkippedIds() {
+        UpdateJournal journal = new UpdateJournal("");
+        for (long id = 1; id <= 5; id++) journal.markNew(id);
+        // ids 6 .. WINDOW + 2 are skipped; their slots are shared with ids 1 .. 5 and must be cleared
+        assertTrue(journal.markNew(WINDOW + 3));
+        assertTrue(journal.markNew(WINDOW + 1));
+        assertTrue(journal.markNew(WINDOW + 2));
+        // still inside the window
+        assertFalse(journal.markNew(4));
+        assertFalse(journal.markNew(5));
+    }
+
+    @Test
+    void advancingAWholeWindowClearsEverything() {
+        UpdateJournal journal = new UpdateJournal("");
+        for (long id = 1; id <= 20; id++) journal.markNew(id);
+        assertTrue(journal.markNew(WINDOW + 30));
+        // same slot as id 10, which is out of the window now
+        assertTrue(journal.markNew(WINDOW + 10));
+        assertFalse(journal.markNew(WINDOW + 10));
+    }
+
+    @Test
+    void resetsWhenIdsJumpBack() {
+        UpdateJournal journal = new UpdateJournal("");
+        assertTrue(journal.markNew(1_000_000));
+        // Telegram restarted its numbering
+        assertTrue(journal.markNew(5));
+        assertEquals(5, journal.lastUpdateId());
+        assertFalse(journal.markNew(5));
+        assertTrue(journal.markNew(6));
+        assertTrue(journal.markNew(1_000_000));
+    }
+
+    @Test
+    void survivesARestart(@TempDir Path dir) {
+        String file = dir.resolve("updates.journal").toString();
+        UpdateJournal journal = new UpdateJournal(file);
+        journal.markNew(41);
+        journal.markNew(42);
+        journal.close();
+
+        UpdateJournal reopened = new UpdateJournal(file);
+        assertEquals(42, reopened.lastUpdateId());
+        assertEquals(43, reopened.resumeOffset());
+        assertFalse(reopened.markNew(41));
+        assertFalse(reopened.markNew(42));
+        assertTrue(reopened.markNew(43));
+        reopened.close();
+    }
+}
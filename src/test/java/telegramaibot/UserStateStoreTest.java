@@ -0,0 +1,103 @@
+package telegramaibot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserStateStoreTest {
+    private static final int HEADER = 8;
+    private static final int RECORD = 9;
+
+    @Test
+    void replaysTheLogOnOpen(@TempDir Path dir) {
+        String file = dir.resolve("users.log").toString();
+        UserStateStore store = new UserStateStore(file);
+        assertTrue(store.markSeen(1));
+        store.setEngine(1, "gemini");
+        store.setEngine(2, "openai");
+        store.setEngine(2, "huggingface");
+        store.close();
+
+        UserStateStore reopened = new UserStateStore(file);
+        assertEquals(2, reopened.size());
+        assertFalse(reopened.markSeen(1));
+        assertEquals("gemini", reopened.engine(1));
+        assertEquals("huggingface", reopened.engine(2));
+        assertTrue(reopened.markSeen(2));
+        assertNull(reopened.engine(3));
+        reopened.close();
+    }
+
+    @Test
+    void truncatesATornFinalRecord(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("users.log");
+        UserStateStore store = new UserStateStore(file.toString());
+        store.setEngine(1, "openai");
+        store.setEngine(2, "gemini");
+        store.close();
+        // a crash halfway through the third record
+        Files.write(file, new byte[]{0, 0, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        UserStateStore reopened = new UserStateStore(file.toString());
+        assertEquals(HEADER + 2 * RECORD, Files.size(file));
+        assertEquals("openai", reopened.engine(1));
+        assertEquals("gemini", reopened.engine(2));
+        // records written after the truncation line up again
+        reopened.setEngine(3, "huggingface");
+        reopened.close();
+
+        UserStateStore again = new UserStateStore(file.toString());
+        assertEquals(3, again.size());
+        assertEquals("huggingface", again.engine(3));
+        again.close();
+    }
+
+    @Test
+    void compactionRewritesOneRecordPerUser(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("users.log");
+        UserStateStore store = new UserStateStore(file.toString());
+        String[] engines = {"openai", "gemini", "huggingface"};
+        // three users switching engines on every round: 3000 records for 3 live entries
+        for (int i = 0; i < 3000; i++) store.setEngine(1 + i % 3, engines[(i / 3) % 3]);
+        store.setEngine(3, "gemini");
+        assertEquals(HEADER + 3001 * RECORD, Files.size(file));
+        store.compact();
+        assertEquals(HEADER + 3 * RECORD, Files.size(file));
+        // the log keeps taking records after the rewrite
+        store.setEngine(4, "huggingface");
+        store.close();
+
+        UserStateStore reopened = new UserStateStore(file.toString());
+        assertEquals(4, reopened.size());
+        assertEquals("openai", reopened.engine(1));
+        assertEquals("openai", reopened.engine(2));
+        assertEquals("gemini", reopened.engine(3));
+        assertEquals("huggingface", reopened.engine(4));
+        reopened.close();
+    }
+
+    @Test
+    void tableGrowsPastItsInitialCapacity(@TempDir Path dir) {
+        String file = dir.resolve("users.log").toString();
+        UserStateStore store = new UserStateStore(file);
+        int users = 10_000;
+        for (long id = 1; id <= users; id++) store.setEngine(id * 7919, UserStateStore.ENGINES[1 + (int) (id % 3)]);
+        assertEquals(users, store.size());
+        for (long id = 1; id <= users; id++) assertEquals(UserStateStore.ENGINES[1 + (int) (id % 3)], store.engine(id * 7919));
+        store.close();
+
+        UserStateStore reopened = new UserStateStore(file);
+        assertEquals(users, reopened.size());
+        assertEquals(UserStateStore.ENGINES[1 + (int) (users % 3)], reopened.engine((long) users * 7919));
+        reopened.close();
+    }
+}
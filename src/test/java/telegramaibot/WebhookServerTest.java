@@ -0,0 +1,106 @@
+package telegramaibot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebhookServerTest {
+    private static final String SECRET = "s3cret";
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private WebhookServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) server.stop();
+    }
+
+    @Test
+    void updatesReachTheHandlerInOrder() throws Exception {
+        BlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+        start(100, update -> received.add(update.getUpdateId()));
+
+        for (int id = 1; id <= 20; id++) assertEquals(200, post(update(id), SECRET));
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) ids.add(received.poll(5, TimeUnit.SECONDS));
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 1; id <= 20; id++) expected.add(id);
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    void rejectsWrongSecretMethodAndSize() throws Exception {
+        start(10, update -> { });
+
+        assertEquals(401, post(update(1), "wrong"));
+        assertEquals(401, post(update(1), null));
+        assertEquals(405, send(HttpRequest.newBuilder(uri()).GET()));
+        assertEquals(413, post("{\"update_id\":1,\"pad\":\"" + "x".repeat(1024 * 1024) + "\"}", SECRET));
+    }
+
+    @Test
+    void fullQueueAnswers503() throws Exception {
+        CountDownLatch taken = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start(1, update -> {
+            taken.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // the intake thread holds the first update, the second fills the queue
+        assertEquals(200, post(update(1), SECRET));
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        assertEquals(200, post(update(2), SECRET));
+        assertEquals(503, post(update(3), SECRET));
+        release.countDown();
+    }
+
+    private void start(int queueCapacity, Consumer<Update> handler) throws IOException {
+        BotConfigurationProperties.Webhook config = new BotConfigurationProperties.Webhook();
+        config.setHost("127.0.0.1");
+        config.setPort(0);
+        config.setSecretToken(SECRET);
+        config.setQueueCapacity(queueCapacity);
+        server = new WebhookServer(config, handler);
+        server.start();
+    }
+
+    private int post(String body, String secret) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri()).POST(HttpRequest.BodyPublishers.ofString(body));
+        if (secret != null) request.header("X-Telegram-Bot-Api-Secret-Token", secret);
+        return send(request);
+    }
+
+    private int send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getPort() + "/telegram/webhook");
+    }
+
+    private static String update(int id) {
+        return "{\"update_id\":" + id + "}";
+    }
+}